@@ -1,8 +1,41 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import src.FileSystemManagement;
+import src.Journal;
 
 public class Main {
-  public static void main(String[] args) {
-    FileSystemManagement fsm = new FileSystemManagement();
-    fsm.run();
+  public static void main(String[] args) throws IOException {
+    boolean batch = false;
+    String script = null;
+    String snapshot = null;
+    for (String arg : args) {
+      if (arg.equals("--batch")) {
+        batch = true;
+      } else if (arg.startsWith("--batch=")) {
+        batch = true;
+        script = arg.substring("--batch=".length());
+      } else {
+        snapshot = arg;
+      }
+    }
+    // A batch run syncs the journal periodically rather than on every command.
+    Journal.SyncPolicy policy =
+        batch ? Journal.SyncPolicy.INTERVAL : Journal.SyncPolicy.COMMIT;
+    FileSystemManagement fsm =
+        snapshot != null ? new FileSystemManagement(Path.of(snapshot), policy)
+                         : new FileSystemManagement();
+    if (!batch) {
+      fsm.run();
+    } else if (script == null || script.equals("-")) {
+      fsm.runBatch(
+          new BufferedReader(new InputStreamReader(System.in), 1 << 16));
+    } else {
+      try (BufferedReader in = Files.newBufferedReader(Path.of(script))) {
+        fsm.runBatch(in);
+      }
+    }
   }
-}
\ No newline at end of file
+}
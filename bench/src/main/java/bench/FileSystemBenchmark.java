@@ -0,0 +1,261 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import src.Directory;
+import src.FileSystem;
+import src.FileSystemElement;
+import src.TreeRenderer;
+
+/**
+ * Measures the public operations of {@link FileSystem} on generated trees.
+ * Run with {@code make bench}, or pick shapes and sizes with
+ * {@code java -jar bench/target/benchmarks.jar -p shape=WIDE -p nodes=1000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class FileSystemBenchmark {
+  /**
+   * The shape of the tree.
+   */
+  @Param({"WIDE", "DEEP", "BALANCED", "SKEWED"})
+  private TreeGenerator.Shape shape;
+  /**
+   * The number of elements in the tree.
+   */
+  @Param({"1000", "10000", "100000", "1000000", "10000000"})
+  private int nodes;
+
+  /**
+   * The file system under test.
+   */
+  private FileSystem fs;
+  /**
+   * The deepest directory of the tree.
+   */
+  private Directory deepest;
+  /**
+   * The path of the deepest directory.
+   */
+  private String deepestPath;
+  /**
+   * The directory with the most children.
+   */
+  private Directory widest;
+  /**
+   * The name of an existing element of the widest directory.
+   */
+  private String existingName;
+
+  /**
+   * Generates the tree and picks the elements the benchmarks work on.
+   */
+  @Setup
+  public void setup() {
+    fs = TreeGenerator.generate(shape, nodes, 42);
+    deepest = TreeGenerator.deepest(fs);
+    deepestPath = deepest.getPath();
+    widest = TreeGenerator.widest(fs);
+    existingName = widest.getChildren()
+                       .get(widest.getChildren().size() / 2)
+                       .getName();
+    fs.createFile(deepest, "moving");
+  }
+
+  /**
+   * Resolves the path of the deepest directory.
+   *
+   * @return the resolved directory
+   */
+  @Benchmark
+  public Directory findDirectory() {
+    return fs.findDirectory(deepestPath);
+  }
+
+  /**
+   * Changes the current directory by path.
+   *
+   * @return the new current directory
+   */
+  @Benchmark
+  public Directory setCurrentDirectory() {
+    fs.setCurrentDirectory(deepestPath);
+    return fs.getCurrentDirectory();
+  }
+
+  /**
+   * Returns the path of the deepest directory.
+   *
+   * @return the path
+   */
+  @Benchmark
+  public String getPath() {
+    return deepest.getPath();
+  }
+
+  /**
+   * Splits the path of the deepest directory.
+   *
+   * @return the parts of the path
+   */
+  @Benchmark
+  public String[] splitPath() {
+    return fs.splitPath(deepestPath);
+  }
+
+  /**
+   * Looks a child up by name in the widest directory.
+   *
+   * @return the found child
+   */
+  @Benchmark
+  public FileSystemElement find() {
+    return widest.find(existingName);
+  }
+
+  /**
+   * Creates and deletes a file in the widest directory, which exercises the
+   * duplicate check of {@link Directory#add}.
+   *
+   * @return whether the file was created
+   */
+  @Benchmark
+  public boolean createDeleteFile() {
+    final boolean created = fs.createFile(widest, "bench.tmp");
+    fs.delete(widest, "bench.tmp");
+    return created;
+  }
+
+  /**
+   * Creates and deletes a directory in the widest directory.
+   *
+   * @return whether the directory was created
+   */
+  @Benchmark
+  public boolean createDeleteDirectory() {
+    final boolean created = fs.createDirectory(widest, "bench.d");
+    fs.delete(widest, "bench.d");
+    return created;
+  }
+
+  /**
+   * Moves a file from the deepest directory to the widest one and back.
+   */
+  @Benchmark
+  public void move() {
+    fs.move(deepest, "moving", widest);
+    fs.move(widest, "moving", deepest);
+  }
+
+  /**
+   * Renames a file back and forth.
+   */
+  @Benchmark
+  public void rename() {
+    fs.rename(deepest, "moving", "moved");
+    fs.rename(deepest, "moved", "moving");
+  }
+
+  /**
+   * Searches the whole file system for an element by name.
+   *
+   * @return the found element
+   */
+  @Benchmark
+  public FileSystemElement recFind() {
+    return fs.recFind(existingName);
+  }
+
+  /**
+   * Searches the whole file system for all the elements sharing a name.
+   *
+   * @return the number of found elements
+   */
+  @Benchmark
+  public int findAll() {
+    return fs.findAll(TreeGenerator.SHARED_NAME).size();
+  }
+
+  /**
+   * Sorts the children of the widest directory.
+   */
+  @Benchmark
+  public void sort() {
+    widest.sort();
+  }
+
+  /**
+   * Renders the children of the widest directory.
+   *
+   * @param bh the sink of the rendered text
+   * @throws IOException never, the output does not fail
+   */
+  @Benchmark
+  public void printChildren(final Blackhole bh) throws IOException {
+    new TreeRenderer(new Sink(bh)).renderChildren(widest);
+  }
+
+  /**
+   * Renders the whole tree.
+   *
+   * @param bh the sink of the rendered text
+   * @return the number of rendered elements
+   * @throws IOException never, the output does not fail
+   */
+  @Benchmark
+  public long printTree(final Blackhole bh) throws IOException {
+    return new TreeRenderer(new Sink(bh)).renderTree(fs.getRoot(), 0);
+  }
+
+  /**
+   * An output that hands everything to a blackhole.
+   */
+  private static final class Sink implements Appendable {
+    /**
+     * The blackhole.
+     */
+    private final Blackhole bh;
+
+    /**
+     * Constructs a new Sink object.
+     *
+     * @param bh the blackhole
+     */
+    Sink(final Blackhole bh) { this.bh = bh; }
+
+    @Override
+    public Appendable append(final CharSequence csq) {
+      bh.consume(csq.length());
+      return this;
+    }
+
+    @Override
+    public Appendable append(final CharSequence csq, final int start,
+                             final int end) {
+      bh.consume(end - start);
+      return this;
+    }
+
+    @Override
+    public Appendable append(final char c) {
+      bh.consume(c);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import src.Directory;
+import src.FileSystem;
+import src.FileSystemElement;
+
+/**
+ * Builds file system trees of a given shape and size for the benchmarks.
+ */
+public final class TreeGenerator {
+  /**
+   * The shapes of the generated trees.
+   */
+  public enum Shape {
+    /**
+     * Every element directly under the root.
+     */
+    WIDE,
+    /**
+     * A long chain of directories with the files spread along it.
+     */
+    DEEP,
+    /**
+     * Every directory has the same number of children.
+     */
+    BALANCED,
+    /**
+     * Elements are attached preferentially to the oldest directories, so a few
+     * directories are huge and most are small.
+     */
+    SKEWED
+  }
+
+  /**
+   * The longest chain built for the deep shape.
+   */
+  private static final int MAX_CHAIN = 2000;
+  /**
+   * The number of children per directory of the balanced shape.
+   */
+  private static final int FAN_OUT = 8;
+  /**
+   * The name shared by a file in every sixteenth directory.
+   */
+  public static final String SHARED_NAME = "README";
+
+  /**
+   * Prevents instantiation.
+   */
+  private TreeGenerator() {}
+
+  /**
+   * Generates a file system with the specified shape and number of elements,
+   * not counting the root.
+   *
+   * @param shape the shape of the tree
+   * @param nodes the number of elements
+   * @param seed  the seed of the random choices
+   * @return the generated file system
+   */
+  public static FileSystem generate(final Shape shape, final int nodes,
+                                    final long seed) {
+    final FileSystem fs = new FileSystem();
+    final Random random = new Random(seed);
+    final List<Directory> directories = new ArrayList<>();
+    directories.add(fs.getRoot());
+    int created = 0;
+    if (shape == Shape.DEEP) {
+      Directory d = fs.getRoot();
+      for (; created < Math.min(nodes / 2, MAX_CHAIN); created++) {
+        fs.createDirectory(d, "d" + created);
+        d = (Directory)d.find("d" + created);
+        directories.add(d);
+      }
+    }
+    int next = 0;
+    while (created < nodes) {
+      final Directory parent;
+      final boolean directory;
+      switch (shape) {
+      case WIDE:
+        parent = fs.getRoot();
+        directory = created % 10 == 0;
+        break;
+      case BALANCED:
+        parent = directories.get(next);
+        if (parent.getChildren().size() + 1 >= FAN_OUT)
+          next++;
+        directory = next >= directories.size() || random.nextBoolean();
+        break;
+      case SKEWED:
+        final double r = random.nextDouble();
+        parent = directories.get((int)(r * r * r * directories.size()));
+        directory = random.nextInt(4) == 0;
+        break;
+      default:
+        parent = directories.get(random.nextInt(directories.size()));
+        directory = random.nextInt(4) == 0;
+        break;
+      }
+      if (directory) {
+        fs.createDirectory(parent, "d" + created);
+        final Directory d = (Directory)parent.find("d" + created);
+        directories.add(d);
+        if (directories.size() % 16 == 0 && created + 1 < nodes) {
+          fs.createFile(d, SHARED_NAME);
+          created++;
+        }
+      } else {
+        fs.createFile(parent, "f" + created + ".txt");
+      }
+      created++;
+    }
+    return fs;
+  }
+
+  /**
+   * Returns the deepest directory of the specified file system.
+   *
+   * @param fs the file system
+   * @return the deepest directory
+   */
+  public static Directory deepest(final FileSystem fs) {
+    Directory deepest = fs.getRoot();
+    List<Directory> level = new ArrayList<>();
+    level.add(fs.getRoot());
+    while (!level.isEmpty()) {
+      deepest = level.get(0);
+      final List<Directory> nextLevel = new ArrayList<>();
+      for (final Directory d : level) {
+        for (final FileSystemElement child : d.getChildren()) {
+          if (child instanceof Directory)
+            nextLevel.add((Directory)child);
+        }
+      }
+      level = nextLevel;
+    }
+    return deepest;
+  }
+
+  /**
+   * Returns the directory with the most children in the specified file system.
+   *
+   * @param fs the file system
+   * @return the widest directory
+   */
+  public static Directory widest(final FileSystem fs) {
+    Directory best = fs.getRoot();
+    final List<Directory> stack = new ArrayList<>();
+    stack.add(fs.getRoot());
+    while (!stack.isEmpty()) {
+      final Directory d = stack.remove(stack.size() - 1);
+      if (d.getChildren().size() > best.getChildren().size())
+        best = d;
+      for (final FileSystemElement child : d.getChildren()) {
+        if (child instanceof Directory)
+          stack.add((Directory)child);
+      }
+    }
+    return best;
+  }
+}
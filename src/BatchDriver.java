@@ -0,0 +1,420 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Runs file system commands from a script without any menu or prompt. One
+ * command is read per line:
+ *
+ * <pre>
+ * cd PATH          change the current directory
+ * ls [PATH]        list a directory
+ * mkdir PATH       create a directory
+ * touch PATH       create a file
+ * rm PATH          delete a file or directory
+ * mv PATH DIR      move a file or directory into a directory
+ * find NAME        print the path of an element with the name
+ * glob PATTERN     print the paths of the elements matching a path glob
+ * tree [PATH]      print the tree of a directory
+ * sort [PATH]      sort a directory by creation date
+ * import SRC [DIR] copy a real directory tree into a directory
+ * metrics          print the operation metrics
+ * begin            collect the next mkdir, touch, rm and mv as one batch
+ * commit           check and apply the collected batch all at once
+ * </pre>
+ *
+ * <p>Paths are absolute or relative to the current directory and may use
+ * {@code .} and {@code ..}; the last component of a mkdir, touch, rm or mv
+ * path names the element and the rest names its parent. Arguments are
+ * separated by blanks, so names containing blanks cannot be used. Blank lines
+ * and lines starting with {@code #} are ignored. A failing command reports its
+ * line number and the script goes on. A batch still open when the script
+ * ends is not applied.
+ *
+ * <p>All output is collected in buffers and written out in large chunks; the
+ * output is flushed only when the script ends.
+ */
+public class BatchDriver {
+  /**
+   * The size above which the output buffer is written out.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+  /**
+   * The line separator.
+   */
+  private static final String NEWLINE = System.lineSeparator();
+
+  /**
+   * The file system the commands run on.
+   */
+  private final FileSystem fs;
+  /**
+   * The session the commands run in.
+   */
+  private final Session session;
+  /**
+   * The output of the commands.
+   */
+  private final Writer out;
+  /**
+   * The buffer the output is collected in.
+   */
+  private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 256);
+  /**
+   * Renders listings and trees. It writes to the output without flushing it,
+   * so the output is flushed only once at the end of the script.
+   */
+  private final TreeRenderer renderer = new TreeRenderer(new Appendable() {
+    @Override
+    public Appendable append(final CharSequence csq) throws IOException {
+      out.append(csq);
+      return this;
+    }
+
+    @Override
+    public Appendable append(final CharSequence csq, final int start,
+                             final int end) throws IOException {
+      out.append(csq, start, end);
+      return this;
+    }
+
+    @Override
+    public Appendable append(final char c) throws IOException {
+      out.append(c);
+      return this;
+    }
+  });
+  /**
+   * The arguments of the command being run.
+   */
+  private final String[] args = new String[3];
+  /**
+   * The batch being collected, or null.
+   */
+  private Transaction transaction;
+  /**
+   * The number of commands run.
+   */
+  private long operations;
+  /**
+   * The number of commands that failed.
+   */
+  private long failures;
+  /**
+   * The time spent running commands, in nanoseconds.
+   */
+  private long nanos;
+
+  /**
+   * Constructs a new BatchDriver object that runs commands in a new session
+   * of the specified file system.
+   *
+   * @param fs  the file system
+   * @param out the output of the commands
+   */
+  public BatchDriver(final FileSystem fs, final Writer out) {
+    this.fs = fs;
+    this.session = fs.openSession();
+    this.out = out;
+  }
+
+  /**
+   * Returns the number of commands run.
+   *
+   * @return the number of commands
+   */
+  public long getOperations() { return operations; }
+
+  /**
+   * Returns the number of commands that failed.
+   *
+   * @return the number of failed commands
+   */
+  public long getFailures() { return failures; }
+
+  /**
+   * Returns the number of commands run per second.
+   *
+   * @return the throughput, or zero if nothing was run
+   */
+  public double getOperationsPerSecond() {
+    return nanos == 0 ? 0 : operations * 1e9 / nanos;
+  }
+
+  /**
+   * Runs every command read from the specified reader and flushes the output.
+   *
+   * @param in the reader of the script
+   * @return the number of commands run
+   * @throws IOException if the script cannot be read or the output fails
+   */
+  public long run(final BufferedReader in) throws IOException {
+    final long start = System.nanoTime();
+    long lineNumber = 0;
+    for (String line; (line = in.readLine()) != null;) {
+      lineNumber++;
+      final int argc = split(line);
+      if (argc < 0)
+        continue;
+      operations++;
+      try {
+        execute(argc);
+      } catch (final IllegalArgumentException | IllegalStateException |
+                     UncheckedIOException e) {
+        failures++;
+        buffer.append("line ").append(lineNumber).append(": ")
+            .append(e.getMessage()).append(NEWLINE);
+      }
+      if (buffer.length() >= BUFFER_SIZE)
+        drain();
+    }
+    drain();
+    out.flush();
+    nanos += System.nanoTime() - start;
+    return operations;
+  }
+
+  /**
+   * Returns a one line summary of the commands run so far.
+   *
+   * @return the summary
+   */
+  public String summary() {
+    return String.format("%d operations (%d failed) in %.3f s, %.0f ops/s",
+                         operations, failures, nanos / 1e9,
+                         getOperationsPerSecond());
+  }
+
+  /**
+   * Runs the command whose words are in {@link #args}.
+   *
+   * @param argc the number of arguments after the command word
+   * @throws IllegalArgumentException if the command is unknown, has the wrong
+   *                                  number of arguments or fails
+   * @throws IllegalStateException    if a batch fails while it is applied
+   * @throws UncheckedIOException     if an import cannot be read or the
+   *                                  journal fails
+   * @throws IOException              if the output fails
+   */
+  private void execute(final int argc) throws IOException {
+    final String command = args[0];
+    switch (command) {
+    case "cd":
+      expect(argc, 1, 1);
+      session.setCurrentDirectory(args[1]);
+      break;
+    case "ls":
+      expect(argc, 0, 1);
+      final Directory listed =
+          argc == 0 ? session.getCurrentDirectory() : directory(args[1]);
+      drain();
+      renderer.renderChildren(listed);
+      break;
+    case "mkdir":
+      expect(argc, 1, 1);
+      if (transaction != null)
+        transaction.createDirectory(parentPathOf(args[1]), nameOf(args[1]));
+      else if (!fs.createDirectory(parentOf(args[1]), nameOf(args[1])))
+        throw new IllegalArgumentException("Element already exists");
+      break;
+    case "touch":
+      expect(argc, 1, 1);
+      if (transaction != null)
+        transaction.createFile(parentPathOf(args[1]), nameOf(args[1]));
+      else if (!fs.createFile(parentOf(args[1]), nameOf(args[1])))
+        throw new IllegalArgumentException("Element already exists");
+      break;
+    case "rm":
+      expect(argc, 1, 1);
+      if (transaction != null)
+        transaction.delete(parentPathOf(args[1]), nameOf(args[1]));
+      else
+        fs.delete(parentOf(args[1]), nameOf(args[1]));
+      break;
+    case "mv":
+      expect(argc, 2, 2);
+      if (transaction != null)
+        transaction.move(parentPathOf(args[1]), nameOf(args[1]), args[2]);
+      else
+        fs.move(parentOf(args[1]), nameOf(args[1]), directory(args[2]));
+      break;
+    case "begin":
+      expect(argc, 0, 0);
+      if (transaction != null)
+        throw new IllegalArgumentException("Batch already open");
+      transaction = session.transaction();
+      break;
+    case "commit":
+      expect(argc, 0, 0);
+      if (transaction == null)
+        throw new IllegalArgumentException("No open batch");
+      final Transaction batch = transaction;
+      transaction = null;
+      batch.commit();
+      break;
+    case "find":
+      expect(argc, 1, 1);
+      final FileSystemElement found = fs.recFind(args[1]);
+      buffer.append(found == null ? "Not found" : found.getPath())
+          .append(NEWLINE);
+      break;
+    case "glob":
+      expect(argc, 1, 1);
+      final Iterator<FileSystemElement> it = fs.glob(args[1]).iterator();
+      while (it.hasNext()) {
+        buffer.append(it.next().getPath()).append(NEWLINE);
+        if (buffer.length() >= BUFFER_SIZE)
+          drain();
+      }
+      break;
+    case "tree":
+      expect(argc, 0, 1);
+      final Directory top = argc == 0 ? fs.getRoot() : directory(args[1]);
+      drain();
+      renderer.renderTree(top, 0);
+      break;
+    case "sort":
+      expect(argc, 0, 1);
+      fs.sort(argc == 0 ? session.getCurrentDirectory() : directory(args[1]),
+              SortOrder.CREATION_DATE);
+      break;
+    case "metrics":
+      expect(argc, 0, 0);
+      buffer.append(Metrics.dump());
+      buffer.append(fs.getPathCache());
+      break;
+    case "import":
+      expect(argc, 1, 2);
+      try {
+        fs.importTree(argc == 1 ? session.getCurrentDirectory()
+                                : directory(args[2]),
+                      Path.of(args[1]));
+      } catch (final IOException e) {
+        throw new UncheckedIOException(
+            "Cannot import " + args[1] + ": " + e.getMessage(), e);
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown command " + command);
+    }
+  }
+
+  /**
+   * Checks the number of arguments of the current command.
+   *
+   * @param argc the number of arguments
+   * @param min  the smallest number allowed
+   * @param max  the largest number allowed
+   * @throws IllegalArgumentException if the number is out of range
+   */
+  private void expect(final int argc, final int min, final int max) {
+    if (argc < min || argc > max)
+      throw new IllegalArgumentException("Wrong number of arguments for " +
+                                         args[0]);
+  }
+
+  /**
+   * Finds the directory with the specified path.
+   *
+   * @param path the absolute or relative path
+   * @return the directory
+   * @throws IllegalArgumentException if the directory is not found
+   */
+  private Directory directory(final String path) {
+    final Directory d = session.findDirectory(path);
+    if (d == null)
+      throw new IllegalArgumentException("Directory not found: " + path);
+    return d;
+  }
+
+  /**
+   * Finds the parent directory of the element with the specified path.
+   *
+   * @param path the absolute or relative path of the element
+   * @return the parent directory
+   * @throws IllegalArgumentException if the directory is not found
+   */
+  private Directory parentOf(final String path) {
+    final int slash = path.lastIndexOf('/');
+    if (slash < 0)
+      return session.getCurrentDirectory();
+    return directory(parentPathOf(path));
+  }
+
+  /**
+   * Returns the path of the parent directory of the element with the
+   * specified path.
+   *
+   * @param path the absolute or relative path of the element
+   * @return the path of the parent, empty for the current directory
+   */
+  private static String parentPathOf(final String path) {
+    final int slash = path.lastIndexOf('/');
+    if (slash < 0)
+      return "";
+    return slash == 0 ? "/" : path.substring(0, slash);
+  }
+
+  /**
+   * Returns the last component of the specified path.
+   *
+   * @param path the path of an element
+   * @return the name of the element
+   * @throws IllegalArgumentException if the path ends with a slash, a
+   *                                  {@code .} or a {@code ..}
+   */
+  private static String nameOf(final String path) {
+    final int slash = path.lastIndexOf('/');
+    if (slash == path.length() - 1)
+      throw new IllegalArgumentException("Missing name in " + path);
+    final String name = slash < 0 ? path : path.substring(slash + 1);
+    if (name.equals(".") || name.equals(".."))
+      throw new IllegalArgumentException("Invalid name in " + path);
+    return name;
+  }
+
+  /**
+   * Splits a line into words, storing them in {@link #args}. Words beyond the
+   * capacity of the array are counted but not stored.
+   *
+   * @param line the line
+   * @return the number of words after the command word, or -1 if the line
+   * holds no command
+   */
+  private int split(final String line) {
+    int count = 0;
+    final int length = line.length();
+    for (int i = 0; i < length;) {
+      while (i < length && Character.isWhitespace(line.charAt(i)))
+        i++;
+      if (i == length)
+        break;
+      if (count == 0 && line.charAt(i) == '#')
+        return -1;
+      final int start = i;
+      while (i < length && !Character.isWhitespace(line.charAt(i)))
+        i++;
+      if (count < args.length)
+        args[count] = line.substring(start, i);
+      count++;
+    }
+    return count - 1;
+  }
+
+  /**
+   * Writes the buffered output out.
+   *
+   * @throws IOException if the output fails
+   */
+  private void drain() throws IOException {
+    if (buffer.length() > 0) {
+      out.append(buffer);
+      buffer.setLength(0);
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package src;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Open addressing hash table of the children of a directory, keyed by name.
+ * Unlike a {@link java.util.HashMap}, it can look a name up from a region of a
+ * larger string, so paths can be resolved without allocating substrings.
+ *
+ * <p>Writers must be serialized by the caller. Readers need no lock: slots are
+ * published with release semantics, a resize publishes a fully built table,
+ * and a lookup that misses while a removal is shifting entries is retried.
+ */
+final class ChildIndex {
+  /**
+   * Access to the slots of a table with memory ordering.
+   */
+  private static final VarHandle SLOTS =
+      MethodHandles.arrayElementVarHandle(FileSystemElement[].class);
+
+  /**
+   * The slots of the table. Empty slots are null.
+   */
+  private volatile FileSystemElement[] table;
+  /**
+   * The number of elements in the table.
+   */
+  private int size;
+  /**
+   * Incremented before and after entries are shifted by a removal, so it is
+   * odd while a removal is in progress.
+   */
+  private volatile int version;
+
+  /**
+   * Constructs a new empty ChildIndex object sized for the specified number of
+   * elements.
+   *
+   * @param expected the number of elements expected
+   */
+  ChildIndex(final int expected) {
+    table = new FileSystemElement[capacityFor(expected)];
+  }
+
+  /**
+   * Returns the number of elements in the table.
+   *
+   * @return the number of elements
+   */
+  int size() { return size; }
+
+  /**
+   * Finds the element with the specified name.
+   *
+   * @param name the name of the element to find
+   * @return the found element, or null if not found
+   */
+  FileSystemElement get(final String name) {
+    return get(name, 0, name.length(), name.hashCode());
+  }
+
+  /**
+   * Finds the element whose name equals the specified region of a string.
+   *
+   * @param s    the string containing the name
+   * @param from the index of the first character of the name
+   * @param to   the index after the last character of the name
+   * @return the found element, or null if not found
+   */
+  FileSystemElement get(final String s, final int from, final int to) {
+    int h = 0;
+    for (int i = from; i < to; i++)
+      h = 31 * h + s.charAt(i);
+    return get(s, from, to, h);
+  }
+
+  /**
+   * Finds the element whose name equals the specified region of a string and
+   * has the specified hash code.
+   *
+   * @param s    the string containing the name
+   * @param from the index of the first character of the name
+   * @param to   the index after the last character of the name
+   * @param hash the {@link String#hashCode()} of the name
+   * @return the found element, or null if not found
+   */
+  private FileSystemElement get(final String s, final int from, final int to,
+                                final int hash) {
+    final int len = to - from;
+    for (;;) {
+      final int v = version;
+      final FileSystemElement[] tab = table;
+      final int mask = tab.length - 1;
+      for (int i = spread(hash) & mask;; i = (i + 1) & mask) {
+        final FileSystemElement e = (FileSystemElement)SLOTS.getAcquire(tab, i);
+        if (e == null)
+          break;
+        final String name = e.getName();
+        // Pooled names let a lookup by the same string skip the comparison.
+        if (name.length() == len &&
+            (name == s || name.regionMatches(0, s, from, len)))
+          return e;
+      }
+      if ((v & 1) == 0 && v == version)
+        return null;
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * Adds the specified element unless an element with the same name exists.
+   *
+   * @param e the element to add
+   * @return the existing element with the same name, or null if the element
+   * was added
+   */
+  FileSystemElement putIfAbsent(final FileSystemElement e) {
+    final String name = e.getName();
+    final FileSystemElement[] tab = table;
+    final int mask = tab.length - 1;
+    int i = spread(name.hashCode()) & mask;
+    for (FileSystemElement cur; (cur = tab[i]) != null; i = (i + 1) & mask) {
+      if (cur.getName().equals(name))
+        return cur;
+    }
+    if ((size + 1) * 2 > tab.length) {
+      resize(tab.length * 2, e);
+    } else {
+      SLOTS.setRelease(tab, i, e);
+    }
+    size++;
+    return null;
+  }
+
+  /**
+   * Removes the specified element, which is stored under the specified name.
+   *
+   * @param name the name the element is stored under
+   * @param e    the element to remove
+   * @return true if the element was removed, false otherwise
+   */
+  boolean remove(final String name, final FileSystemElement e) {
+    final FileSystemElement[] tab = table;
+    final int mask = tab.length - 1;
+    int i = spread(name.hashCode()) & mask;
+    for (FileSystemElement cur; (cur = tab[i]) != e; i = (i + 1) & mask) {
+      if (cur == null)
+        return false;
+    }
+    version++;
+    // Shift the following entries of the cluster back so that probing never
+    // stops early at the freed slot.
+    for (int j = (i + 1) & mask;; j = (j + 1) & mask) {
+      final FileSystemElement cur = tab[j];
+      if (cur == null)
+        break;
+      final int home = spread(cur.getName().hashCode()) & mask;
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        SLOTS.setRelease(tab, i, cur);
+        i = j;
+      }
+    }
+    SLOTS.setRelease(tab, i, null);
+    version++;
+    size--;
+    return true;
+  }
+
+  /**
+   * Grows the table so that it can hold the specified number of elements
+   * without being rehashed.
+   *
+   * @param expected the number of elements expected
+   */
+  void reserve(final int expected) {
+    final int capacity = capacityFor(expected);
+    if (capacity <= table.length)
+      return;
+    final FileSystemElement[] tab = new FileSystemElement[capacity];
+    final int mask = capacity - 1;
+    for (final FileSystemElement e : table) {
+      if (e != null)
+        insert(tab, mask, e);
+    }
+    table = tab;
+  }
+
+  /**
+   * Rehashes the elements, plus one new element, into a new table of the
+   * specified capacity and publishes it.
+   *
+   * @param capacity the new capacity, a power of two
+   * @param added    the element to add to the new table
+   */
+  private void resize(final int capacity, final FileSystemElement added) {
+    final FileSystemElement[] tab = new FileSystemElement[capacity];
+    final int mask = capacity - 1;
+    for (final FileSystemElement e : table) {
+      if (e != null)
+        insert(tab, mask, e);
+    }
+    insert(tab, mask, added);
+    table = tab;
+  }
+
+  /**
+   * Inserts an element into a table that is not yet published.
+   *
+   * @param tab  the table
+   * @param mask the capacity of the table minus one
+   * @param e    the element to insert
+   */
+  private static void insert(final FileSystemElement[] tab, final int mask,
+                             final FileSystemElement e) {
+    int i = spread(e.getName().hashCode()) & mask;
+    while (tab[i] != null)
+      i = (i + 1) & mask;
+    tab[i] = e;
+  }
+
+  /**
+   * Returns the capacity of a table that holds the specified number of
+   * elements at most half full.
+   *
+   * @param expected the number of elements expected
+   * @return the capacity, a power of two
+   */
+  private static int capacityFor(final int expected) {
+    return Integer.highestOneBit(Math.max(expected, 1) * 2) << 1;
+  }
+
+  /**
+   * Spreads the higher bits of a hash code to the lower ones.
+   *
+   * @param h the hash code
+   * @return the spread hash code
+   */
+  private static int spread(final int h) { return h ^ (h >>> 16); }
+}
@@ -0,0 +1,358 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A file system that can be used by several threads at once.
+ *
+ * <p>Directories are guarded by a fixed set of lock stripes, so changes to
+ * unrelated directories run in parallel. A move of a file holds the stripes of
+ * both parents, taken in stripe order so that two moves can never deadlock.
+ * Moving, renaming or deleting a directory excludes all the other changes:
+ * two crossing moves cannot form a cycle, nothing is created inside a subtree
+ * while it is being deleted or renamed, no path below a renamed directory is
+ * cached from its old name, and no change below a directory is carried up
+ * the ancestors it is leaving. Path and name lookups take no lock at all.
+ *
+ * <p>A new directory can be found as soon as it is added, so its creation
+ * holds the stripe of the new directory as well until the change is published
+ * and recorded; no change inside it can reach the versions or the journal
+ * ahead of its creation. A new file needs nothing more, since every change to
+ * a file holds the stripe of its parent. An imported subtree is attached, and
+ * the checkpoint that stands for its records written, while no other change
+ * can be made.
+ */
+public class ConcurrentFileSystem extends FileSystem {
+  /**
+   * The default number of lock stripes.
+   */
+  private static final int DEFAULT_STRIPES = 64;
+
+  /**
+   * The lock stripes guarding the directories.
+   */
+  private final ReentrantLock[] stripes;
+  /**
+   * Held shared by every change, and exclusively while a directory subtree is
+   * deleted or the whole tree is read.
+   */
+  private final ReentrantReadWriteLock topology = new ReentrantReadWriteLock();
+  /**
+   * The sequence number of the journal record each thread has appended but
+   * not yet waited for, or zero.
+   */
+  private final ThreadLocal<long[]> pendingRecord =
+      ThreadLocal.withInitial(() -> new long[1]);
+  /**
+   * Whether a checkpoint became due while locks were held.
+   */
+  private volatile boolean checkpointDue;
+
+  /**
+   * Constructs a new ConcurrentFileSystem object with the default number of
+   * lock stripes.
+   */
+  public ConcurrentFileSystem() { this(DEFAULT_STRIPES); }
+
+  /**
+   * Constructs a new ConcurrentFileSystem object with the specified number of
+   * lock stripes.
+   *
+   * @param stripeCount the number of lock stripes, rounded up to a power of two
+   * @throws IllegalArgumentException if the number is not positive
+   */
+  public ConcurrentFileSystem(final int stripeCount) {
+    if (stripeCount <= 0)
+      throw new IllegalArgumentException("Invalid stripe count");
+    final int n = Integer.highestOneBit(stripeCount - 1) << 1;
+    stripes = new ReentrantLock[Math.max(n, 1)];
+    for (int i = 0; i < stripes.length; i++)
+      stripes[i] = new ReentrantLock();
+  }
+
+  /**
+   * Returns the stripe index of the specified directory.
+   *
+   * @param directory the directory
+   * @return the stripe index
+   */
+  private int stripeOf(final Directory directory) {
+    final int h = System.identityHashCode(directory);
+    return (h ^ (h >>> 16)) & (stripes.length - 1);
+  }
+
+  @Override
+  public void printChildren(final Directory directory) {
+    final ReentrantLock lock = stripes[stripeOf(directory)];
+    lock.lock();
+    try {
+      super.printChildren(directory);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void sort(final Directory directory, final SortOrder order) {
+    final ReentrantLock lock = stripes[stripeOf(directory)];
+    lock.lock();
+    try {
+      super.sort(directory, order);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a copy of the children of the specified directory, taken while the
+   * directory cannot change.
+   *
+   * @param directory the directory to list
+   * @return the children of the directory
+   */
+  public List<FileSystemElement> listChildren(final Directory directory) {
+    final ReentrantLock lock = stripes[stripeOf(directory)];
+    lock.lock();
+    try {
+      return new ArrayList<>(directory.getChildren());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean createFile(final Directory parent, final String name) {
+    final boolean created;
+    topology.readLock().lock();
+    final ReentrantLock lock = stripes[stripeOf(parent)];
+    lock.lock();
+    try {
+      created = super.createFile(parent, name);
+    } finally {
+      lock.unlock();
+      topology.readLock().unlock();
+    }
+    finish();
+    return created;
+  }
+
+  @Override
+  public boolean createDirectory(final Directory parent, final String name) {
+    final Directory directory = new Directory(name, parent);
+    final boolean created;
+    topology.readLock().lock();
+    final int a = stripeOf(parent);
+    final int b = stripeOf(directory);
+    final ReentrantLock first = stripes[Math.min(a, b)];
+    final ReentrantLock second = stripes[Math.max(a, b)];
+    first.lock();
+    second.lock();
+    try {
+      created = create(parent, directory);
+    } finally {
+      second.unlock();
+      first.unlock();
+      topology.readLock().unlock();
+    }
+    finish();
+    return created;
+  }
+
+  @Override
+  protected void attach(final Directory parent, final Directory subtree) {
+    topology.writeLock().lock();
+    try {
+      super.attach(parent, subtree);
+    } finally {
+      topology.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public FileSystemElement delete(final Directory parent, final String name) {
+    final FileSystemElement deleted;
+    if (parent.find(name) instanceof Directory) {
+      topology.writeLock().lock();
+      try {
+        deleted = super.delete(parent, name);
+      } finally {
+        topology.writeLock().unlock();
+      }
+      finish();
+      return deleted;
+    }
+    topology.readLock().lock();
+    final ReentrantLock lock = stripes[stripeOf(parent)];
+    lock.lock();
+    try {
+      if (parent.find(name) instanceof Directory)
+        throw new IllegalArgumentException("Element changed concurrently");
+      deleted = super.delete(parent, name);
+    } finally {
+      lock.unlock();
+      topology.readLock().unlock();
+    }
+    finish();
+    return deleted;
+  }
+
+  @Override
+  public void rename(final Directory parent, final String name,
+                     final String newName) {
+    if (parent.find(name) instanceof Directory) {
+      topology.writeLock().lock();
+      try {
+        super.rename(parent, name, newName);
+      } finally {
+        topology.writeLock().unlock();
+      }
+      finish();
+      return;
+    }
+    topology.readLock().lock();
+    final ReentrantLock lock = stripes[stripeOf(parent)];
+    lock.lock();
+    try {
+      if (parent.find(name) instanceof Directory)
+        throw new IllegalArgumentException("Element changed concurrently");
+      super.rename(parent, name, newName);
+    } finally {
+      lock.unlock();
+      topology.readLock().unlock();
+    }
+    finish();
+  }
+
+  @Override
+  public void move(final Directory parent, final String name,
+                   final Directory newParent) {
+    if (parent.find(name) instanceof Directory) {
+      topology.writeLock().lock();
+      try {
+        super.move(parent, name, newParent);
+      } finally {
+        topology.writeLock().unlock();
+      }
+      finish();
+      return;
+    }
+    topology.readLock().lock();
+    final int a = stripeOf(parent);
+    final int b = stripeOf(newParent);
+    final ReentrantLock first = stripes[Math.min(a, b)];
+    final ReentrantLock second = stripes[Math.max(a, b)];
+    first.lock();
+    second.lock();
+    try {
+      if (parent.find(name) instanceof Directory)
+        throw new IllegalArgumentException("Element changed concurrently");
+      super.move(parent, name, newParent);
+    } finally {
+      second.unlock();
+      first.unlock();
+      topology.readLock().unlock();
+    }
+    finish();
+  }
+
+  /**
+   * Checks and applies a batch of changes while no other change can be made,
+   * so the batch takes the locks once and is never seen half applied by
+   * another change.
+   *
+   * @param transaction the batch
+   */
+  @Override
+  protected void commit(final Transaction transaction) {
+    topology.writeLock().lock();
+    try {
+      super.commit(transaction);
+    } finally {
+      topology.writeLock().unlock();
+    }
+    finish();
+  }
+
+  /**
+   * Appends the record of a change without waiting for it, since the caller
+   * still holds locks. The wait, and a checkpoint that became due, happen in
+   * {@link #finish()} once the locks are released, so that threads working on
+   * different directories share the same fsync.
+   *
+   * @param op   the operation
+   * @param args the arguments of the operation
+   */
+  @Override
+  protected void record(final Journal.Op op, final String... args) {
+    final Journal journal = getJournal();
+    if (journal == null)
+      return;
+    pendingRecord.get()[0] = journal.append(op, args);
+    if (journal.needsCheckpoint())
+      checkpointDue = true;
+  }
+
+  /**
+   * Waits for the journal record appended by the current thread, if any, and
+   * runs a checkpoint that became due. Must be called with no lock held.
+   */
+  private void finish() {
+    final Journal journal = getJournal();
+    if (journal == null)
+      return;
+    final long[] pending = pendingRecord.get();
+    if (pending[0] != 0) {
+      final long seq = pending[0];
+      pending[0] = 0;
+      journal.sync(seq);
+    }
+    if (checkpointDue) {
+      checkpointDue = false;
+      checkpoint();
+    }
+  }
+
+  /**
+   * Writes a snapshot of the file system and empties the journal while no
+   * change can be made.
+   */
+  @Override
+  public void checkpoint() {
+    topology.writeLock().lock();
+    try {
+      super.checkpoint();
+    } finally {
+      topology.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Builds the first version of the tree for snapshots while no change can be
+   * made to it.
+   */
+  @Override
+  public void enableSnapshots() {
+    topology.writeLock().lock();
+    try {
+      super.enableSnapshots();
+    } finally {
+      topology.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Prints the file system tree while no change can be made to it.
+   */
+  @Override
+  public void printTree() {
+    topology.writeLock().lock();
+    try {
+      super.printTree();
+    } finally {
+      topology.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Counts the children of a directory by the depth they add to it: one for a
+ * file and one more than its own depth for a directory. The depth of the
+ * directory is the largest depth with a positive count, so removing its
+ * deepest child does not need a walk. The depths are kept sorted in a pair of
+ * small arrays; there are never more of them than children.
+ *
+ * <p>Updates from different children may arrive out of order, so a count can
+ * be briefly negative. Counts are sums, so they end up right once every
+ * update has arrived. The object is guarded by the directory that owns it.
+ */
+final class DepthCounts {
+  /**
+   * The depths that have a count, in increasing order.
+   */
+  private int[] depths = new int[2];
+  /**
+   * The count of each depth.
+   */
+  private int[] counts = new int[2];
+  /**
+   * The number of depths that have a count.
+   */
+  private int size;
+
+  /**
+   * Adds to the count of a depth.
+   *
+   * @param depth the depth
+   * @param delta the number to add, possibly negative
+   */
+  void add(final int depth, final int delta) {
+    int i = Arrays.binarySearch(depths, 0, size, depth);
+    if (i < 0) {
+      i = -i - 1;
+      if (size == depths.length) {
+        depths = Arrays.copyOf(depths, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      System.arraycopy(depths, i, depths, i + 1, size - i);
+      System.arraycopy(counts, i, counts, i + 1, size - i);
+      depths[i] = depth;
+      counts[i] = 0;
+      size++;
+    }
+    counts[i] += delta;
+    if (counts[i] == 0) {
+      System.arraycopy(depths, i + 1, depths, i, size - i - 1);
+      System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+      size--;
+    }
+  }
+
+  /**
+   * Returns the largest depth with a positive count.
+   *
+   * @return the largest depth, or zero if there is none
+   */
+  int max() {
+    for (int i = size - 1; i >= 0; i--) {
+      if (counts[i] > 0)
+        return depths[i];
+    }
+    return 0;
+  }
+}
@@ -1,19 +1,74 @@
 package src;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a directory in a file system.
  * Extends the {@link FileSystemElement} class.
  */
 public class Directory extends FileSystemElement {
+  /**
+   * The children of every directory that has never had any. Most directories
+   * of a big tree are small or empty, so the containers are only allocated
+   * when the first child is added.
+   */
+  private static final List<FileSystemElement> NO_CHILDREN =
+      Collections.emptyList();
+  /**
+   * The index of every directory that has never had any children.
+   */
+  private static final ChildIndex NO_INDEX = new ChildIndex(0);
+
   /**
    * The list of children elements in the directory.
    */
-  private List<FileSystemElement> children;
+  private List<FileSystemElement> children = NO_CHILDREN;
+  /**
+   * Index of the children elements by name. Kept in sync with
+   * {@link #children}, which preserves the listing order.
+   */
+  private volatile ChildIndex index = NO_INDEX;
+  /**
+   * The children elements in each sort order that has been asked for, or null
+   * if none has. Once created, a view is kept up to date as children come and
+   * go, so it never has to be sorted again.
+   */
+  private Map<SortOrder, TreeSet<FileSystemElement>> views;
+  /**
+   * The order the directory is listed in, or null for the order the children
+   * were added in.
+   */
+  private SortOrder order;
+  /**
+   * The number of files below the directory.
+   */
+  private long files;
+  /**
+   * The number of directories below the directory.
+   */
+  private long directories;
+  /**
+   * The number of levels below the directory.
+   */
+  private int depth;
+  /**
+   * The children by the depth they add to the directory, or null if it has
+   * never had any.
+   */
+  private DepthCounts depths;
 
   /**
    * Constructs a new Directory object with the specified name and parent
@@ -24,23 +79,200 @@ public class Directory extends FileSystemElement {
    */
   public Directory(final String name, final Directory parent) {
     super(name, parent);
-    children = new ArrayList<>();
   }
 
   /**
-   * Returns the list of children elements in the directory.
+   * Returns the list of children elements in the directory. The list is read
+   * only; use {@link #add(FileSystemElement)} and the remove methods to modify
+   * the directory so that the name index stays consistent.
    *
    * @return the list of children elements
    */
-  public List<FileSystemElement> getChildren() { return children; }
+  public List<FileSystemElement> getChildren() {
+    return Collections.unmodifiableList(children);
+  }
+
+  /**
+   * Returns the number of files below the directory, at any level.
+   *
+   * @return the number of files
+   */
+  public synchronized long getFileCount() { return files; }
+
+  /**
+   * Returns the number of directories below the directory, at any level.
+   *
+   * @return the number of directories, not counting this one
+   */
+  public synchronized long getDirectoryCount() { return directories; }
+
+  /**
+   * Returns the number of elements below the directory, at any level.
+   *
+   * @return the number of files and directories, not counting this one
+   */
+  public synchronized long getSubtreeSize() { return files + directories; }
+
+  /**
+   * Returns the number of levels below the directory: zero if it is empty,
+   * one if it holds only files and empty directories, and so on.
+   *
+   * @return the depth of the subtree
+   */
+  public synchronized int getSubtreeDepth() { return depth; }
+
+  /**
+   * Returns the figures of the subtree of the directory. They are kept up to
+   * date as elements are added, removed and moved, so this takes constant
+   * time.
+   *
+   * @return the figures of the subtree
+   */
+  public synchronized SubtreeStats getStats() {
+    return new SubtreeStats(files, directories, depth);
+  }
+
+  /**
+   * Returns the number of children elements in the directory.
+   *
+   * @return the number of children
+   */
+  int childCount() { return children.size(); }
+
+  /**
+   * Returns the child at the specified position in the order the children
+   * were added in, without wrapping the list.
+   *
+   * @param i the position of the child
+   * @return the child
+   */
+  FileSystemElement child(final int i) { return children.get(i); }
+
+  /**
+   * Returns an iterator over the directory and everything below it in the
+   * specified order. The walk uses no recursion, so it is safe on trees of
+   * any depth.
+   *
+   * @param order the order of the walk
+   * @return the iterator
+   */
+  public SubtreeIterator iterator(final TraversalOrder order) {
+    return new SubtreeIterator(this, order);
+  }
+
+  /**
+   * Returns a stream of the directory and everything below it in the
+   * specified order. A pre-order stream splits by subtree, so it can be made
+   * parallel; the other orders split only in batches.
+   *
+   * @param order the order of the walk
+   * @return the stream
+   */
+  public Stream<FileSystemElement> stream(final TraversalOrder order) {
+    final Spliterator<FileSystemElement> spliterator =
+        order == TraversalOrder.PRE_ORDER
+            ? new SubtreeSpliterator(this)
+            : Spliterators.spliteratorUnknownSize(
+                  iterator(order), Spliterator.ORDERED | Spliterator.DISTINCT |
+                                       Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false);
+  }
 
   /**
    * Sets the list of children elements in the directory.
    *
    * @param children the list of children elements
+   * @throws IllegalArgumentException if two children have the same name
    */
   public void setChildren(final List<FileSystemElement> children) {
-    this.children = children;
+    final ChildIndex newIndex = new ChildIndex(children.size());
+    for (final FileSystemElement child : children) {
+      if (newIndex.putIfAbsent(child) != null)
+        throw new IllegalArgumentException("Duplicate name: " +
+                                           child.getName());
+    }
+    this.children = new ArrayList<>(children);
+    this.index = newIndex;
+    this.views = null;
+    final SubtreeStats old = getStats();
+    recount();
+    final Directory parent = getParent();
+    if (parent != null) {
+      final SubtreeStats now = getStats();
+      parent.propagate(now.getFiles() - old.getFiles(),
+                       now.getDirectories() - old.getDirectories(),
+                       old.getDepth() + 1, now.getDepth() + 1);
+    }
+  }
+
+  /**
+   * Returns the children elements of the directory in the specified order.
+   * The view is read only and follows later changes to the directory.
+   *
+   * @param order the sort order
+   * @return the sorted children elements
+   */
+  public NavigableSet<FileSystemElement> getChildren(final SortOrder order) {
+    return Collections.unmodifiableNavigableSet(view(order));
+  }
+
+  /**
+   * Returns the children elements of the directory in its listing order.
+   *
+   * @return the children elements, sorted if an order has been set
+   */
+  public Collection<FileSystemElement> getListing() {
+    return order == null ? getChildren() : getChildren(order);
+  }
+
+  /**
+   * Returns the order the directory is listed in.
+   *
+   * @return the sort order, or null for the order the children were added in
+   */
+  public SortOrder getSortOrder() { return order; }
+
+  /**
+   * Returns the view of the specified order, creating it if needed.
+   *
+   * @param order the sort order
+   * @return the view
+   */
+  private TreeSet<FileSystemElement> view(final SortOrder order) {
+    if (views == null)
+      views = new EnumMap<>(SortOrder.class);
+    TreeSet<FileSystemElement> view = views.get(order);
+    if (view == null) {
+      view = new TreeSet<>(order.comparator());
+      view.addAll(children);
+      views.put(order, view);
+    }
+    return view;
+  }
+
+  /**
+   * Adds a child to every sort order view.
+   *
+   * @param child the child
+   */
+  void linkViews(final FileSystemElement child) {
+    if (views != null) {
+      for (final TreeSet<FileSystemElement> view : views.values())
+        view.add(child);
+    }
+  }
+
+  /**
+   * Removes a child from every sort order view. This must be done before a
+   * change to the child that affects an order, such as a rename.
+   *
+   * @param child the child
+   */
+  void unlinkViews(final FileSystemElement child) {
+    if (views != null) {
+      for (final TreeSet<FileSystemElement> view : views.values())
+        view.remove(child);
+    }
   }
 
   /**
@@ -50,10 +282,29 @@ public class Directory extends FileSystemElement {
    * @return true if the element was added successfully, false otherwise
    */
   public boolean add(final FileSystemElement e) {
-    if (find(e.getName()) != null) {
+    if (!addUncounted(e))
+      return false;
+    count(e, 1);
+    return true;
+  }
+
+  /**
+   * Adds a child without updating the aggregates of the directory and its
+   * ancestors. Used to build a detached tree, which is then counted bottom up
+   * with {@link #recount()}.
+   *
+   * @param e the file system element to add
+   * @return true if the element was added successfully, false otherwise
+   */
+  boolean addUncounted(final FileSystemElement e) {
+    if (children == NO_CHILDREN)
+      allocate(1);
+    if (index.putIfAbsent(e) != null) {
       return false;
     }
-    return children.add(e);
+    children.add(e);
+    linkViews(e);
+    return true;
   }
 
   /**
@@ -63,7 +314,12 @@ public class Directory extends FileSystemElement {
    * @return the removed file system element
    */
   public FileSystemElement remove(final int index) {
-    return children.remove(index);
+    Objects.checkIndex(index, children.size());
+    final FileSystemElement removed = children.remove(index);
+    this.index.remove(removed.getName(), removed);
+    unlinkViews(removed);
+    count(removed, -1);
+    return removed;
   }
 
   /**
@@ -73,7 +329,126 @@ public class Directory extends FileSystemElement {
    * @return true if the element was removed successfully, false otherwise
    */
   public boolean remove(final FileSystemElement e) {
-    return children.remove(e);
+    if (!index.remove(e.getName(), e))
+      return false;
+    unlinkViews(e);
+    children.remove(e);
+    count(e, -1);
+    return true;
+  }
+
+  /**
+   * Recomputes the aggregates of the directory from its children, whose own
+   * aggregates must be up to date. The ancestors are not updated.
+   */
+  void recount() {
+    long f = 0;
+    long ds = 0;
+    final DepthCounts counts = children.isEmpty() ? null : new DepthCounts();
+    for (final FileSystemElement child : children) {
+      if (child instanceof Directory) {
+        final Directory c = (Directory)child;
+        synchronized (c) {
+          f += c.files;
+          ds += c.directories + 1;
+          counts.add(c.depth + 1, 1);
+        }
+      } else {
+        f++;
+        counts.add(1, 1);
+      }
+    }
+    synchronized (this) {
+      files = f;
+      directories = ds;
+      depths = counts;
+      depth = counts == null ? 0 : counts.max();
+    }
+  }
+
+  /**
+   * Adds the figures of a child to the aggregates of the directory and its
+   * ancestors, or takes them off.
+   *
+   * @param e    the child
+   * @param sign one if the child was added, minus one if it was removed
+   */
+  private void count(final FileSystemElement e, final int sign) {
+    if (e instanceof Directory) {
+      final Directory d = (Directory)e;
+      final long f;
+      final long ds;
+      final int dp;
+      synchronized (d) {
+        f = d.files;
+        ds = d.directories + 1;
+        dp = d.depth + 1;
+      }
+      propagate(sign * f, sign * ds, sign < 0 ? dp : 0, sign > 0 ? dp : 0);
+    } else {
+      propagate(sign, 0, sign < 0 ? 1 : 0, sign > 0 ? 1 : 0);
+    }
+  }
+
+  /**
+   * Applies the change of one child to the aggregates of the directory and
+   * carries the resulting change up to the root. Each directory is updated
+   * under its own monitor, so changes below different directories can be
+   * carried at the same time.
+   *
+   * @param fileDelta      the change in the number of files
+   * @param directoryDelta the change in the number of directories
+   * @param oldDepth       the depth the child added before, or zero if it was
+   *                       not a child
+   * @param newDepth       the depth the child adds now, or zero if it is no
+   *                       longer a child
+   */
+  private void propagate(final long fileDelta, final long directoryDelta,
+                         final int oldDepth, final int newDepth) {
+    int from = oldDepth;
+    int to = newDepth;
+    for (Directory d = this; d != null; d = d.getParent()) {
+      final int before;
+      final int after;
+      synchronized (d) {
+        d.files += fileDelta;
+        d.directories += directoryDelta;
+        before = d.depth;
+        if (from != to) {
+          if (d.depths == null)
+            d.depths = new DepthCounts();
+          if (from > 0)
+            d.depths.add(from, -1);
+          if (to > 0)
+            d.depths.add(to, 1);
+          d.depth = d.depths.max();
+        }
+        after = d.depth;
+      }
+      if (before != after) {
+        from = before + 1;
+        to = after + 1;
+      } else if (fileDelta == 0 && directoryDelta == 0) {
+        return;
+      } else {
+        from = 0;
+        to = 0;
+      }
+    }
+  }
+
+  /**
+   * Discards the cached path of the directory and of the descendants whose
+   * path is cached. Descendants of an element without a cached path have no
+   * cached path either, so only the cached part of the subtree is visited.
+   */
+  @Override
+  void invalidatePath() {
+    if (!isPathCached())
+      return;
+    super.invalidatePath();
+    for (final FileSystemElement child : children)
+      child.invalidatePath();
   }
 
   /**
@@ -83,13 +458,58 @@ public class Directory extends FileSystemElement {
    * @param name the name of the element to find
    * @return the found file system element, or null if not found
    */
-  public FileSystemElement find(final String name) {
-    for (final FileSystemElement child : children) {
-      if (child.getName().equals(name)) {
-        return child;
-      }
+  public FileSystemElement find(final String name) { return index.get(name); }
+
+  /**
+   * Makes room for the specified number of additional children, so that
+   * adding them in bulk does not grow the containers step by step.
+   *
+   * @param count the number of children about to be added
+   */
+  void reserve(final int count) {
+    if (children == NO_CHILDREN) {
+      allocate(count);
+    } else {
+      ((ArrayList<FileSystemElement>)children).ensureCapacity(children.size() +
+                                                              count);
+      index.reserve(index.size() + count);
     }
-    return null;
+  }
+
+  /**
+   * Allocates the containers of a directory that has none yet.
+   *
+   * @param capacity the number of children to make room for
+   */
+  private void allocate(final int capacity) {
+    children = new ArrayList<>(capacity);
+    index = new ChildIndex(capacity);
+  }
+
+  /**
+   * Updates the name index and the sort order views after a child has been
+   * renamed. The child must have been unlinked from the views before.
+   *
+   * @param child   the renamed child
+   * @param oldName the previous name of the child
+   */
+  void rename(final FileSystemElement child, final String oldName) {
+    index.remove(oldName, child);
+    index.putIfAbsent(child);
+    linkViews(child);
+  }
+
+  /**
+   * Finds and returns the child whose name equals the specified region of a
+   * string, without allocating a substring.
+   *
+   * @param s    the string containing the name
+   * @param from the index of the first character of the name
+   * @param to   the index after the last character of the name
+   * @return the found file system element, or null if not found
+   */
+  public FileSystemElement find(final String s, final int from, final int to) {
+    return index.get(s, from, to);
   }
 
   /**
@@ -107,36 +527,22 @@ public class Directory extends FileSystemElement {
       return null;
     else if (getParent() != null && !pathParts[0].equals(getName()))
       return null;
-    if (pathParts.length == 1)
-      return this;
 
-    for (final FileSystemElement child : children) {
-      final FileSystemElement found =
-          child.find(Arrays.copyOfRange(pathParts, 1, pathParts.length));
-      if (found != null)
-        return found;
+    FileSystemElement current = this;
+    for (int i = 1; i < pathParts.length; i++) {
+      if (!(current instanceof Directory))
+        return null;
+      current = ((Directory)current).find(pathParts[i]);
+      if (current == null)
+        return null;
     }
-
-    return null;
+    return current;
   }
 
   /**
    * Prints the children elements of the directory.
    */
-  public void printChildren() {
-    if (children.isEmpty()) {
-      System.out.println("Empty directory");
-      return;
-    }
-    for (final FileSystemElement child : children) {
-      if (child instanceof Directory)
-        System.out.println(child);
-    }
-    for (final FileSystemElement child : children) {
-      if (child instanceof File)
-        System.out.println(child);
-    }
-  }
+  public void printChildren() { TreeRenderer.printChildren(this); }
 
   /**
    * Deletes the file system element with the specified name from the directory.
@@ -161,13 +567,37 @@ public class Directory extends FileSystemElement {
    * Deletes the directory and all its children elements recursively.
    */
   public void delete() {
-    final List<FileSystemElement> childrenCopy = new ArrayList<>(children);
-    for (final FileSystemElement child : childrenCopy) {
-      child.delete();
-    }
+    deleteChildren();
     super.delete();
   }
 
+  /**
+   * Deletes the children elements of the directory and everything below
+   * them, each directory after its children.
+   */
+  private void deleteChildren() {
+    final Iterator<FileSystemElement> it = iterator(TraversalOrder.POST_ORDER);
+    while (it.hasNext()) {
+      final FileSystemElement e = it.next();
+      if (e instanceof Directory)
+        ((Directory)e).detachChildren();
+    }
+  }
+
+  /**
+   * Removes all the children elements from the directory at once, without
+   * touching their own children. The aggregates are left as they were, so
+   * that removing the emptied directory from its parent afterwards still takes
+   * the whole subtree off the ancestors.
+   */
+  void detachChildren() {
+    for (final FileSystemElement child : children)
+      child.setParent(null);
+    children = NO_CHILDREN;
+    index = NO_INDEX;
+    views = null;
+  }
+
   /**
    * Returns a string representation of the directory.
    *
@@ -179,41 +609,39 @@ public class Directory extends FileSystemElement {
   }
 
   /**
-   * Recursively finds and returns the file system element with the specified
-   * name in the directory and its children.
+   * Finds and returns the first file system element in pre-order with the
+   * specified name in the directory and its children.
    *
    * @param name the name of the element to find
    * @return the found file system element, or null if not found
    */
   @Override
   public FileSystemElement recFind(final String name) {
-    if (getName().equals(name)) {
-      return this;
-    }
-    for (final FileSystemElement child : children) {
-      final FileSystemElement found = child.recFind(name);
-      if (found != null) {
-        return found;
-      }
+    final Iterator<FileSystemElement> it = iterator(TraversalOrder.PRE_ORDER);
+    while (it.hasNext()) {
+      final FileSystemElement e = it.next();
+      if (e.getName().equals(name))
+        return e;
     }
     return null;
   }
 
   /**
-   * Prints the directory and its children elements in a tree-like structure.
-   *
-   * @param level the indentation level of the directory
+   * Lists the directory by name from now on.
    */
-  @Override
-  public void printTree(final int level) {
-    super.printTree(level);
-    for (final FileSystemElement child : children) {
-      child.printTree(level + 1);
-    }
-  }
+  public void sort() { sort(SortOrder.NAME); }
 
   /**
-   * Sorts the children elements of the directory.
+   * Lists the directory in the specified order from now on. The order is kept
+   * up to date as children are added, removed and renamed, so the directory is
+   * sorted only once.
+   *
+   * @param order the sort order, or null for the order the children were
+   *              added in
    */
-  public void sort() { Collections.sort(children); }
+  public void sort(final SortOrder order) {
+    if (order != null)
+      view(order);
+    this.order = order;
+  }
 }
@@ -1,5 +1,17 @@
 package src;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
 /**
  * Represents a file system.
  */
@@ -9,9 +21,39 @@ public class FileSystem {
    */
   private Directory root;
   /**
-   * The current directory of the file system.
+   * The default session, which holds the current directory used by the
+   * methods that take no directory.
+   */
+  private final Session session;
+  /**
+   * The index of all the elements of the file system by name.
+   */
+  private final NameIndex names = new NameIndex();
+  /**
+   * The engine used to walk big subtrees in parallel.
+   */
+  private final ParallelTraversal traversal = new ParallelTraversal();
+  /**
+   * The cache of the directories absolute paths resolved to.
+   */
+  private final PathCache pathCache =
+      new PathCache(Integer.getInteger("fs.pathCache",
+                                       PathCache.DEFAULT_CAPACITY));
+  /**
+   * The journal the changes are recorded in, or null.
+   */
+  private Journal journal;
+  /**
+   * The latest version of the tree as seen by snapshots, or null if
+   * snapshots are not enabled.
+   */
+  private volatile TreeSnapshot.Node version;
+  /**
+   * Guards the changes to {@link #version}. A rename is applied to the tree
+   * and to the version under this lock, so that the path of a directory is
+   * always found in the version when it is read under the lock.
    */
-  private Directory currentDirectory;
+  private final Object versionLock = new Object();
 
   /**
    * Constructs a new FileSystem object with the root directory set to a new
@@ -19,7 +61,8 @@ public class FileSystem {
    */
   public FileSystem() {
     root = new Directory("root", null);
-    currentDirectory = root;
+    session = new Session(this);
+    names.add(root);
   }
 
   /**
@@ -29,29 +72,314 @@ public class FileSystem {
   public Directory getRoot() { return root; }
 
   /**
-   * Sets the root directory of the file system.
+   * Sets the root directory of the file system. The name index is rebuilt and
+   * the current directory moves to the new root.
    * @param root the root directory
    */
-  public void setRoot(final Directory root) { this.root = root; }
+  public void setRoot(final Directory root) {
+    this.root = root;
+    pathCache.clear();
+    session.setCurrentDirectory(root);
+    names.clear();
+    names.addTree(root);
+    synchronized (versionLock) {
+      if (version != null)
+        version = TreeSnapshot.Node.of(root);
+    }
+  }
+
+  /**
+   * Starts keeping versions of the tree for snapshots. From now on, every
+   * change made through the methods of this class also builds a new version,
+   * which costs a copy of the path from the root to the changed directory.
+   * The tree must not change while the first version is built.
+   */
+  public void enableSnapshots() {
+    synchronized (versionLock) {
+      version = TreeSnapshot.Node.of(root);
+    }
+  }
+
+  /**
+   * Stops keeping versions of the tree. Snapshots already taken stay valid.
+   */
+  public void disableSnapshots() {
+    synchronized (versionLock) {
+      version = null;
+    }
+  }
+
+  /**
+   * Returns whether versions of the tree are kept for snapshots.
+   * @return true if snapshots are enabled
+   */
+  public boolean isSnapshotEnabled() { return version != null; }
+
+  /**
+   * Returns a point-in-time view of the tree. This takes constant time, and
+   * the view never changes, however long it is walked.
+   * @return the snapshot
+   * @throws IllegalStateException if snapshots are not enabled
+   */
+  public TreeSnapshot snapshot() {
+    final TreeSnapshot.Node v = version;
+    if (v == null)
+      throw new IllegalStateException("Snapshots are not enabled");
+    return new TreeSnapshot(v);
+  }
+
+  /**
+   * Builds a new version of the tree, if snapshots are enabled.
+   * @param change the change to make to the latest version
+   * @throws IllegalStateException if the change does not fit the latest
+   *                               version
+   */
+  private void publish(final UnaryOperator<TreeSnapshot.Node> change) {
+    if (version == null)
+      return;
+    synchronized (versionLock) {
+      if (version != null)
+        version = change.apply(version);
+    }
+  }
+
+  /**
+   * Returns the name index of the file system. The index tracks the changes
+   * made through the methods of this class.
+   * @return the name index
+   */
+  public NameIndex getNameIndex() { return names; }
+
+  /**
+   * Opens a new session on the file system, starting at the root directory.
+   * Sessions share the tree but each has its own current directory.
+   * @return the new session
+   */
+  public Session openSession() { return new Session(this); }
+
+  /**
+   * Starts a batch of changes that is checked and applied all at once.
+   * Relative paths in the batch start from the current directory.
+   * @return the new transaction
+   */
+  public Transaction transaction() {
+    return new Transaction(this, getCurrentDirectory());
+  }
+
+  /**
+   * Checks and applies a batch of changes. Nothing is applied if a change is
+   * invalid; if applying fails, the changes already made are undone. The
+   * batch builds one new version for snapshots and one journal record.
+   * Deleted directories are emptied once the whole batch has been applied.
+   * @param transaction the batch
+   * @throws IllegalArgumentException if a change is invalid
+   */
+  protected void commit(final Transaction transaction) {
+    final long start = Metrics.start();
+    final List<Transaction.Step> steps = transaction.validate(root);
+    final Deque<Runnable> undo = new ArrayDeque<>();
+    final List<FileSystemElement> deleted = new ArrayList<>();
+    final String[] log = new String[steps.size() * 4];
+    synchronized (versionLock) {
+      TreeSnapshot.Node v = version;
+      try {
+        for (int i = 0; i < steps.size(); i++)
+          v = apply(steps.get(i), v, undo, deleted, log, i * 4);
+      } catch (final RuntimeException e) {
+        while (!undo.isEmpty())
+          undo.pop().run();
+        throw e;
+      }
+      if (version != null)
+        version = v;
+    }
+    for (final FileSystemElement e : deleted) {
+      if (e instanceof Directory)
+        traversal.delete((Directory)e, d -> names.remove(d.getName(), d));
+      else
+        names.remove(e.getName(), e);
+    }
+    if (log.length > 0)
+      record(Journal.Op.BATCH, log);
+    Metrics.stop(Metrics.Op.COMMIT, start, steps.size());
+  }
+
+  /**
+   * Applies one checked change of a batch.
+   * @param step    the change
+   * @param v       the version of the tree before the change, or null
+   * @param undo    the undo log, which the change pushes its undo onto
+   * @param deleted the deleted elements, still to be emptied and unindexed
+   * @param log     the journal arguments of the batch
+   * @param at      the index of the arguments of the change in the log
+   * @return the version of the tree after the change, or null
+   */
+  private TreeSnapshot.Node apply(final Transaction.Step step,
+                                  final TreeSnapshot.Node v,
+                                  final Deque<Runnable> undo,
+                                  final List<FileSystemElement> deleted,
+                                  final String[] log, final int at) {
+    final Directory parent = step.parent();
+    final String name = step.name();
+    log[at] = step.op().name();
+    log[at + 1] = parent.getPath();
+    log[at + 2] = name;
+    log[at + 3] = "";
+    switch (step.op()) {
+    case CREATE_FILE:
+    case CREATE_DIRECTORY:
+      final FileSystemElement made;
+      if (step.op() == Journal.Op.CREATE_FILE) {
+        made = new File(name, parent);
+      } else {
+        final Directory d = new Directory(name, parent);
+        step.created(d);
+        made = d;
+      }
+      if (!parent.add(made))
+        throw new IllegalStateException("Element already exists");
+      names.add(made);
+      undo.push(() -> {
+        parent.remove(made);
+        made.setParent(null);
+        names.remove(name, made);
+      });
+      return v == null ? null
+                       : TreeSnapshot.added(v, parent,
+                                            TreeSnapshot.Node.of(made));
+    case DELETE:
+      // Only detach the subtree, so that undoing puts it back whole.
+      final FileSystemElement gone = existing(parent, name);
+      parent.remove(gone);
+      gone.setParent(null);
+      deleted.add(gone);
+      undo.push(() -> {
+        deleted.remove(deleted.size() - 1);
+        gone.setParent(parent);
+        parent.add(gone);
+      });
+      return v == null ? null : TreeSnapshot.removed(v, parent, name);
+    case MOVE:
+      final FileSystemElement moved = existing(parent, name);
+      final Directory target = step.target();
+      log[at + 3] = target.getPath();
+      moved.move(target);
+      undo.push(() -> moved.move(parent));
+      return v == null ? null : TreeSnapshot.moved(v, parent, name, target);
+    case RENAME:
+      final FileSystemElement renamed = existing(parent, name);
+      final String newName = step.newName();
+      log[at + 3] = newName;
+      renamed.setName(newName);
+      names.rename(renamed, name);
+      undo.push(() -> {
+        renamed.setName(name);
+        names.rename(renamed, newName);
+      });
+      return v == null ? null
+                       : TreeSnapshot.renamed(v, parent, name, newName);
+    default:
+      throw new IllegalStateException("Unknown operation");
+    }
+  }
+
+  /**
+   * Returns the child a checked change applies to.
+   * @param parent the parent directory
+   * @param name   the name of the child
+   * @return the child
+   * @throws IllegalStateException if the child is missing
+   */
+  private static FileSystemElement existing(final Directory parent,
+                                            final String name) {
+    final FileSystemElement e = parent.find(name);
+    if (e == null)
+      throw new IllegalStateException("Element not found");
+    return e;
+  }
+
+  /**
+   * Returns the default session of the file system, which the methods that
+   * take no directory work on.
+   * @return the default session
+   */
+  public Session getSession() { return session; }
+
+  /**
+   * Returns the engine the file system uses to walk subtrees in parallel.
+   * @return the parallel traversal engine
+   */
+  public ParallelTraversal getTraversal() { return traversal; }
+
+  /**
+   * Returns the cache of resolved paths, with its hit and miss statistics.
+   * @return the path cache
+   */
+  public PathCache getPathCache() { return pathCache; }
+
+  /**
+   * Returns the journal the changes are recorded in.
+   * @return the journal, or null if changes are not recorded
+   */
+  public Journal getJournal() { return journal; }
+
+  /**
+   * Sets the journal the changes are recorded in.
+   * @param journal the journal, or null to stop recording changes
+   */
+  public void setJournal(final Journal journal) { this.journal = journal; }
+
+  /**
+   * Records a change in the journal, if there is one, and waits for it to be
+   * durable as the sync policy of the journal asks. Starts a checkpoint when
+   * one is due.
+   * @param op   the operation
+   * @param args the arguments of the operation
+   */
+  protected void record(final Journal.Op op, final String... args) {
+    if (journal == null)
+      return;
+    journal.sync(journal.append(op, args));
+    if (journal.needsCheckpoint())
+      checkpoint();
+  }
+
+  /**
+   * Writes a snapshot of the file system and empties the journal.
+   * @throws IllegalStateException if the file system has no journal
+   * @throws UncheckedIOException  if the snapshot cannot be written
+   */
+  public void checkpoint() {
+    if (journal == null)
+      throw new IllegalStateException("No journal");
+    try {
+      journal.checkpoint(this);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
   /**
    * Returns the current directory of the file system.
    * @return the current directory
    */
-  public Directory getCurrentDirectory() { return currentDirectory; }
+  public Directory getCurrentDirectory() {
+    return session.getCurrentDirectory();
+  }
 
   /**
    * Sets the current directory of the file system.
    * @param currentDirectory the current directory
    */
   public void setCurrentDirectory(final Directory currentDirectory) {
-    this.currentDirectory = currentDirectory;
+    session.setCurrentDirectory(currentDirectory);
   }
 
   /**
    * Sets the current directory of the file system to the directory with the
    * specified path.
-   * @param path the path of the directory to set as the current directory
+   * @param path the absolute or relative path of the directory to set as the
+   *             current directory
    * @throws IllegalArgumentException if the directory is not found
    */
   public void setCurrentDirectory(final String path)
@@ -59,20 +387,19 @@ public class FileSystem {
     final Directory newCurrentDirectory = findDirectory(path);
     if (newCurrentDirectory == null)
       throw new IllegalArgumentException("Directory not found");
-    currentDirectory = newCurrentDirectory;
+    session.setCurrentDirectory(newCurrentDirectory);
   }
 
   /**
    * Prints the path to the current directory.
    */
-  public void printCurrentPath() {
-    if (currentDirectory == root) {
-      System.out.println("/");
-      return;
-    }
-    currentDirectory.printPath();
-    System.out.println();
-  }
+  public void printCurrentPath() { System.out.println(getCurrentPath()); }
+
+  /**
+   * Returns the path to the current directory.
+   * @return the absolute path of the current directory
+   */
+  public String getCurrentPath() { return session.getCurrentPath(); }
 
   /**
    * Splits the specified path into parts.
@@ -82,43 +409,195 @@ public class FileSystem {
   public String[] splitPath(final String path) { return path.split("/"); }
 
   /**
-   * Finds the directory with the specified path.
-   * @param path the path of the directory to find
+   * Finds the directory with the specified path. Paths that do not start with
+   * a slash are resolved against the current directory and may use
+   * {@code .} and {@code ..}. An empty path denotes the root. Absolute paths
+   * found before are answered from the path cache.
+   * @param path the absolute or relative path of the directory to find
    * @return the found directory, or null if not found
    */
   public Directory findDirectory(final String path) {
-    return root.findDirectory(splitPath(path));
+    final long start = Metrics.start();
+    Directory found;
+    if (path.isEmpty() || path.charAt(0) == '/') {
+      found = pathCache.get(path);
+      if (found == null) {
+        found = PathResolver.resolve(root, path);
+        if (found != null)
+          pathCache.put(path, found);
+      }
+    } else {
+      found = PathResolver.resolve(root, getCurrentDirectory(), path);
+    }
+    Metrics.stop(Metrics.Op.FIND_DIRECTORY, start);
+    return found;
   }
 
   /**
    * Prints the children of the current directory.
    */
-  public void printCurrentChildren() { currentDirectory.printChildren(); }
+  public void printCurrentChildren() { session.printCurrentChildren(); }
+
+  /**
+   * Prints the children of the specified directory.
+   * @param directory the directory to list
+   */
+  public void printChildren(final Directory directory) {
+    directory.printChildren();
+  }
 
   /**
    * Creates a new file with the specified name in the current directory.
    * @param name the name of the file to create
+   * @throws IllegalArgumentException if the name is invalid
    */
-  public void createFile(final String name) {
-    final File newFile = new File(name, currentDirectory);
-    currentDirectory.add(newFile);
+  public void createFile(final String name) { session.createFile(name); }
+
+  /**
+   * Creates a new file with the specified name in the specified directory.
+   * @param parent the directory to create the file in
+   * @param name   the name of the file to create
+   * @return true if the file was created, false if the name is already taken
+   * @throws IllegalArgumentException if the name is invalid or the directory
+   *                                  has been deleted
+   */
+  public boolean createFile(final Directory parent, final String name) {
+    return create(parent, new File(name, parent));
   }
 
   /**
    * Creates a new directory with the specified name in the current directory.
    * @param name the name of the directory to create
+   * @throws IllegalArgumentException if the name is invalid
    */
   public void createDirectory(final String name) {
-    final Directory newDirectory = new Directory(name, currentDirectory);
-    currentDirectory.add(newDirectory);
+    session.createDirectory(name);
+  }
+
+  /**
+   * Creates a new directory with the specified name in the specified
+   * directory.
+   * @param parent the directory to create the directory in
+   * @param name   the name of the directory to create
+   * @return true if the directory was created, false if the name is already
+   * taken
+   * @throws IllegalArgumentException if the name is invalid or the directory
+   *                                  has been deleted
+   */
+  public boolean createDirectory(final Directory parent, final String name) {
+    return create(parent, new Directory(name, parent));
+  }
+
+  /**
+   * Adds a new file or directory to the specified directory, then indexes,
+   * publishes and records it.
+   * @param parent  the directory to add to
+   * @param element the new element, whose parent is already set
+   * @return true if the element was added, false if the name is already taken
+   * @throws IllegalArgumentException if the name is invalid or the directory
+   *                                  has been deleted
+   */
+  protected boolean create(final Directory parent,
+                           final FileSystemElement element) {
+    final long start = Metrics.start();
+    checkName(element.getName());
+    checkAttached(parent);
+    if (!parent.add(element))
+      return false;
+    names.add(element);
+    publish(v -> TreeSnapshot.added(v, parent, TreeSnapshot.Node.of(element)));
+    if (element instanceof Directory) {
+      record(Journal.Op.CREATE_DIRECTORY, parent.getPath(), element.getName());
+      Metrics.stop(Metrics.Op.CREATE_DIRECTORY, start);
+    } else {
+      record(Journal.Op.CREATE_FILE, parent.getPath(), element.getName());
+      Metrics.stop(Metrics.Op.CREATE_FILE, start);
+    }
+    return true;
   }
 
   /**
    * Deletes the file or directory with the specified name from the current
    * directory.
    * @param name the name of the file or directory to delete
+   * @throws IllegalArgumentException if the element is not found
+   */
+  public void delete(final String name) {
+    final FileSystemElement deleted = session.delete(name);
+    if (deleted instanceof Directory)
+      System.out.println("Deleting directory " + deleted);
+    else
+      System.out.println("Deleting file " + deleted);
+  }
+
+  /**
+   * Deletes the file or directory with the specified name from the specified
+   * directory.
+   * @param parent the directory to delete from
+   * @param name   the name of the file or directory to delete
+   * @return the deleted element
+   * @throws IllegalArgumentException if the element or the directory is not
+   *                                  found
+   */
+  public FileSystemElement delete(final Directory parent, final String name) {
+    final long start = Metrics.start();
+    checkAttached(parent);
+    final FileSystemElement element = parent.find(name);
+    if (element == null)
+      throw new IllegalArgumentException("Element not found");
+    final long removed;
+    if (element instanceof Directory) {
+      removed = traversal.delete((Directory)element,
+                                 e -> names.remove(e.getName(), e));
+    } else {
+      names.remove(name, element);
+      element.delete();
+      removed = 1;
+    }
+    publish(v -> TreeSnapshot.removed(v, parent, name));
+    record(Journal.Op.DELETE, parent.getPath(), name);
+    Metrics.stop(Metrics.Op.DELETE, start, removed);
+    return element;
+  }
+
+  /**
+   * Renames the file or directory with the specified name in the current
+   * directory.
+   * @param name    the name of the file or directory to rename
+   * @param newName the new name
+   * @throws IllegalArgumentException if the element is not found or the new
+   *                                  name is invalid or already taken
    */
-  public void delete(final String name) { currentDirectory.delete(name); }
+  public void rename(final String name, final String newName) {
+    session.rename(name, newName);
+  }
+
+  /**
+   * Renames the file or directory with the specified name in the specified
+   * directory.
+   * @param parent  the directory containing the element
+   * @param name    the name of the file or directory to rename
+   * @param newName the new name
+   * @throws IllegalArgumentException if the element is not found or the new
+   *                                  name is invalid or already taken
+   */
+  public void rename(final Directory parent, final String name,
+                     final String newName) {
+    final long start = Metrics.start();
+    checkName(newName);
+    checkAttached(parent);
+    final FileSystemElement element = parent.find(name);
+    if (element == null)
+      throw new IllegalArgumentException("Element not found");
+    synchronized (versionLock) {
+      element.setName(newName);
+      if (version != null)
+        version = TreeSnapshot.renamed(version, parent, name, newName);
+    }
+    names.rename(element, name);
+    record(Journal.Op.RENAME, parent.getPath(), name, newName);
+    Metrics.stop(Metrics.Op.RENAME, start);
+  }
 
   /**
    * Moves the file or directory with the specified name to the specified path.
@@ -126,30 +605,273 @@ public class FileSystem {
    * @param path the path to move the file or directory to
    */
   public void move(final String name, final String path) {
-    final FileSystemElement element = currentDirectory.find(name);
-    if (element == null)
-      throw new IllegalArgumentException("Element not found");
+    move(getCurrentDirectory(), name, path);
+  }
+
+  /**
+   * Moves the file or directory with the specified name in the specified
+   * directory to the specified path.
+   * @param parent the directory containing the element
+   * @param name   the name of the file or directory to move
+   * @param path   the path to move the file or directory to
+   * @throws IllegalArgumentException if the element or the directory is not
+   *                                  found, or the move is not possible
+   */
+  public void move(final Directory parent, final String name,
+                   final String path) {
     final Directory newParent = findDirectory(path);
     if (newParent == null)
       throw new IllegalArgumentException("Directory not found");
+    move(parent, name, newParent);
+  }
+
+  /**
+   * Moves the file or directory with the specified name in the specified
+   * directory to the specified new parent directory.
+   * @param parent    the directory containing the element
+   * @param name      the name of the file or directory to move
+   * @param newParent the directory to move the element to
+   * @throws IllegalArgumentException if the element is not found or the move
+   *                                  is not possible
+   */
+  public void move(final Directory parent, final String name,
+                   final Directory newParent) {
+    final long start = Metrics.start();
+    checkAttached(parent);
+    checkAttached(newParent);
+    final FileSystemElement element = parent.find(name);
+    if (element == null)
+      throw new IllegalArgumentException("Element not found");
     element.move(newParent);
+    publish(v -> TreeSnapshot.moved(v, parent, name, newParent));
+    record(Journal.Op.MOVE, parent.getPath(), name, newParent.getPath());
+    Metrics.stop(Metrics.Op.MOVE, start);
   }
 
   /**
-   * Recursively finds a file or directory with the specified name in the file
-   * system.
+   * Lists the specified directory in the specified order from now on.
+   * @param directory the directory to sort
+   * @param order     the sort order, or null for the order the children were
+   *                  added in
+   */
+  public void sort(final Directory directory, final SortOrder order) {
+    final long start = Metrics.start();
+    directory.sort(order);
+    Metrics.stop(Metrics.Op.SORT, start);
+  }
+
+  /**
+   * Imports a real directory and everything below it as a new directory in
+   * the specified directory. The copy is built off to the side and then added
+   * in one step. Imports are not journaled one element at a time; when the
+   * file system has a journal, a checkpoint is written instead as part of the
+   * same step.
+   * @param parent the directory to import into
+   * @param source the real directory to import
+   * @return the number of imported elements
+   * @throws IOException              if the source cannot be read
+   * @throws IllegalArgumentException if the source is not a directory or its
+   *                                  name is already taken
+   */
+  public long importTree(final Directory parent, final Path source)
+      throws IOException {
+    final long start = Metrics.start();
+    final TreeImporter importer = new TreeImporter();
+    final Directory imported = importer.read(source);
+    attach(parent, imported);
+    Metrics.stop(Metrics.Op.IMPORT, start, importer.getImported());
+    return importer.getImported();
+  }
+
+  /**
+   * Returns whether a name can be given to an element. Paths could not reach
+   * an element with an empty name, a slash in its name or a name of a dot or
+   * two dots.
+   * @param name the name
+   * @return true if the name is not empty, has no slash and is not a dot or
+   * two dots
+   */
+  static boolean isValidName(final String name) {
+    return !name.isEmpty() && name.indexOf('/') < 0 && !name.equals(".") &&
+        !name.equals("..");
+  }
+
+  /**
+   * Checks that a name can be given to an element.
+   * @param name the name
+   * @throws IllegalArgumentException if the name is invalid
+   */
+  private static void checkName(final String name) {
+    if (!isValidName(name))
+      throw new IllegalArgumentException("Invalid name");
+  }
+
+  /**
+   * Checks that the specified directory is still part of the tree, since a
+   * session may hold on to a directory another session has deleted. Deleting
+   * a directory detaches all its descendants, so only the root has no parent.
+   * @param directory the directory to check
+   * @throws IllegalArgumentException if the directory has been deleted
+   */
+  protected void checkAttached(final Directory directory) {
+    if (directory != root && directory.getParent() == null)
+      throw new IllegalArgumentException("Directory not found");
+  }
+
+  /**
+   * Adds a directory built off to the side, with all its descendants, to the
+   * specified directory. The subtree is not journaled, so when the file
+   * system has a journal, a checkpoint is written.
+   * @param parent  the directory to add to
+   * @param subtree the directory to add, which has no parent yet
+   * @throws IllegalArgumentException if the name is already taken
+   */
+  protected void attach(final Directory parent, final Directory subtree) {
+    checkAttached(parent);
+    subtree.setParent(parent);
+    if (!parent.add(subtree)) {
+      subtree.setParent(null);
+      throw new IllegalArgumentException("Element already exists");
+    }
+    names.addTree(subtree);
+    // Build the node under the version lock, so that it cannot miss a change
+    // made inside the subtree once it is attached.
+    publish(v -> TreeSnapshot.added(v, parent, TreeSnapshot.Node.of(subtree)));
+    if (journal != null)
+      checkpoint();
+  }
+
+  /**
+   * Finds a file or directory with the specified name in the file system.
+   * The lookup is answered from the name index; when several elements share
+   * the name, any one of them may be returned.
    * @param name the name of the file or directory to find
    * @return the found file or directory, or null if not found
    */
   public FileSystemElement recFind(final String name) {
-    return root.recFind(name);
+    final long start = Metrics.start();
+    final FileSystemElement found = names.findFirst(name);
+    Metrics.stop(Metrics.Op.RECFIND, start);
+    return found;
+  }
+
+  /**
+   * Finds all the files and directories with the specified name in the file
+   * system.
+   * @param name the name of the files and directories to find
+   * @return a read only view of the found elements
+   */
+  public Set<FileSystemElement> findAll(final String name) {
+    final long start = Metrics.start();
+    final Set<FileSystemElement> found = names.findAll(name);
+    Metrics.stop(Metrics.Op.FIND_ALL, start, found.size());
+    return found;
+  }
+
+  /**
+   * Finds all the files and directories whose name matches the specified
+   * glob, such as {@code *.log}. The search reads the sorted names of the
+   * name index, starting at the literal prefix of the glob, so it never visits
+   * the tree.
+   * @param glob the glob, without slashes
+   * @return a lazy stream of the found elements, in no particular order
+   * @throws IllegalArgumentException if the glob contains a slash
+   */
+  public Stream<FileSystemElement> findByName(final String glob) {
+    if (glob.indexOf('/') >= 0)
+      throw new IllegalArgumentException("Name patterns cannot contain /");
+    Metrics.count(Metrics.Op.FIND_BY_NAME);
+    final String prefix = PathGlob.literalPrefix(glob);
+    if (prefix.length() == glob.length())
+      return findAll(glob).stream();
+    return names.names(prefix)
+        .filter(name -> {
+          Metrics.visited(Metrics.Op.FIND_BY_NAME, 1);
+          return PathGlob.matchesName(glob, name);
+        })
+        .flatMap(name -> findAll(name).stream());
+  }
+
+  /**
+   * Finds all the files and directories whose whole name matches the
+   * specified regular expression. Each distinct name is tested once.
+   * @param regex the regular expression
+   * @return a lazy stream of the found elements, in no particular order
+   */
+  public Stream<FileSystemElement> findByName(final Pattern regex) {
+    Metrics.count(Metrics.Op.FIND_BY_NAME);
+    return names.names("")
+        .filter(name -> {
+          Metrics.visited(Metrics.Op.FIND_BY_NAME, 1);
+          return regex.matcher(name).matches();
+        })
+        .flatMap(name -> findAll(name).stream());
+  }
+
+  /**
+   * Finds all the files and directories whose path matches the specified
+   * glob, such as {@code src/*.java} or {@code **}{@code /build/*}. Relative
+   * globs are matched from the current directory and absolute ones from the
+   * root.
+   * @param glob the glob
+   * @return a lazy stream of the found elements
+   * @throws IllegalArgumentException if the glob is empty
+   */
+  public Stream<FileSystemElement> glob(final String glob) {
+    final PathGlob compiled = PathGlob.compile(glob);
+    return glob(compiled.isAbsolute() ? root : getCurrentDirectory(),
+                compiled);
+  }
+
+  /**
+   * Finds all the descendants of the specified directory whose path relative
+   * to it matches the specified glob. Subtrees the glob cannot match are not
+   * visited. A glob of the form {@code **}{@code /name/...} without another
+   * {@code **} starts from the elements with that name in the name index
+   * instead of walking the whole directory; its matches then come in no
+   * particular order, and otherwise in depth-first order.
+   * @param base the directory to match from
+   * @param glob the compiled glob
+   * @return a lazy stream of the found elements
+   */
+  public Stream<FileSystemElement> glob(final Directory base,
+                                        final PathGlob glob) {
+    Metrics.count(Metrics.Op.GLOB);
+    final String anchor = glob.anchorName();
+    if (anchor == null)
+      return glob.find(base);
+    final PathGlob rest = glob.afterAnchor();
+    return findAll(anchor).stream()
+        .filter(e -> isBelow(e, base))
+        .flatMap(e -> rest == null ? Stream.of(e)
+                      : e instanceof Directory ? rest.find((Directory)e)
+                                               : Stream.empty());
+  }
+
+  /**
+   * Returns whether an element is a descendant of a directory.
+   * @param e         the element
+   * @param directory the directory
+   * @return true if the directory is a proper ancestor of the element
+   */
+  private static boolean isBelow(final FileSystemElement e,
+                                 final Directory directory) {
+    for (Directory d = e.getParent(); d != null; d = d.getParent()) {
+      if (d == directory)
+        return true;
+    }
+    return false;
   }
 
   /**
-   * Prints the file system tree.
+   * Prints the file system tree. The live tree is printed whether or not
+   * snapshots are enabled, so the output does not depend on them; a snapshot
+   * can be printed with {@link TreeRenderer#printTree(TreeSnapshot.Node, int)}.
    */
   public void printTree() {
+    final long start = Metrics.start();
     System.out.println("Path to current directory: ");
     root.printTree(0);
+    Metrics.stop(Metrics.Op.PRINT_TREE, start, root.getSubtreeSize() + 1);
   }
 }
@@ -8,17 +8,24 @@ import java.util.Date;
 public abstract class FileSystemElement
     implements Comparable<FileSystemElement> {
   /**
-   * The name of the file system element.
+   * The name of the file system element, pooled through {@link NamePool}.
    */
   private String name;
   /**
-   * The creation date of the file system element.
+   * The creation time of the file system element, in milliseconds since the
+   * epoch.
    */
-  private Date creationDate;
+  private long creationTime;
   /**
    * The parent directory of the file system element.
    */
   private Directory parent;
+  /**
+   * The cached absolute path of the file system element, or null if it has not
+   * been computed since the element or one of its ancestors last changed. A
+   * path is only cached once the path of the parent is cached.
+   */
+  private String path;
 
   /**
    * Constructs a new FileSystemElement object with the specified name and
@@ -28,8 +35,8 @@ public abstract class FileSystemElement
    * @param parent the parent directory of the file system element
    */
   public FileSystemElement(final String name, final Directory parent) {
-    this.name = name;
-    this.creationDate = new Date();
+    this.name = NamePool.intern(name);
+    this.creationTime = System.currentTimeMillis();
     this.parent = parent;
   }
 
@@ -44,15 +51,65 @@ public abstract class FileSystemElement
    * Sets the name of the file system element.
    *
    * @param name the name
+   * @throws IllegalArgumentException if the parent directory already contains
+   *                                  an element with the new name
    */
-  public void setName(final String name) { this.name = name; }
+  public void setName(final String name) {
+    final Directory container = container();
+    if (container != null) {
+      final FileSystemElement existing = container.find(name);
+      if (existing != null && existing != this)
+        throw new IllegalArgumentException("Element already exists");
+    }
+    final String oldName = this.name;
+    if (container != null)
+      container.unlinkViews(this);
+    this.name = NamePool.intern(name);
+    if (container != null)
+      container.rename(this, oldName);
+    invalidatePath();
+  }
 
   /**
-   * Returns the creation date of the file system element.
+   * Returns the creation time of the file system element.
+   *
+   * @return the creation time, in milliseconds since the epoch
+   */
+  public long getCreationTime() { return creationTime; }
+
+  /**
+   * Sets the creation time of the file system element.
+   *
+   * @param creationTime the creation time, in milliseconds since the epoch
+   */
+  public void setCreationTime(final long creationTime) {
+    final Directory container = container();
+    if (container != null)
+      container.unlinkViews(this);
+    this.creationTime = creationTime;
+    if (container != null)
+      container.linkViews(this);
+  }
+
+  /**
+   * Returns the parent directory if it actually holds the element. A new
+   * element points to its parent before it is added, and must not touch the
+   * views of the parent until then.
+   *
+   * @return the parent directory, or null if the element is not one of its
+   * children
+   */
+  private Directory container() {
+    return parent != null && parent.find(name) == this ? parent : null;
+  }
+
+  /**
+   * Returns the creation date of the file system element. The date is a new
+   * object built from {@link #getCreationTime()} on every call.
    *
    * @return the creation date
    */
-  public Date getCreationDate() { return creationDate; }
+  public Date getCreationDate() { return new Date(creationTime); }
 
   /**
    * Sets the creation date of the file system element.
@@ -60,7 +117,7 @@ public abstract class FileSystemElement
    * @param creationDate the creation date
    */
   public void setCreationDate(final Date creationDate) {
-    this.creationDate = creationDate;
+    setCreationTime(creationDate.getTime());
   }
 
   /**
@@ -75,16 +132,58 @@ public abstract class FileSystemElement
    *
    * @param parent the parent directory
    */
-  public void setParent(final Directory parent) { this.parent = parent; }
+  public void setParent(final Directory parent) {
+    this.parent = parent;
+    invalidatePath();
+  }
+
+  /**
+   * Returns the absolute path of the file system element. The path is cached,
+   * so repeated calls do not walk the parent chain.
+   *
+   * @return the absolute path
+   */
+  public String getPath() {
+    String p = path;
+    if (p == null) {
+      if (parent == null)
+        p = "/";
+      else if (parent.getParent() == null)
+        p = "/" + name;
+      else
+        p = parent.getPath() + "/" + name;
+      path = p;
+    }
+    return p;
+  }
+
+  /**
+   * Discards the cached path of the file system element and its descendants.
+   */
+  void invalidatePath() { path = null; }
+
+  /**
+   * Returns whether the path of the file system element is cached.
+   *
+   * @return true if the path is cached, false otherwise
+   */
+  boolean isPathCached() { return path != null; }
+
+  /**
+   * Returns the cached path of the file system element, without computing it.
+   * A new string is cached every time the path is computed again, so two
+   * reads return the same string only if the path did not change in between.
+   *
+   * @return the cached path, or null if the path is not cached
+   */
+  String cachedPath() { return path; }
 
   /**
    * Prints the path of the file system element.
    */
   public void printPath() {
-    if (parent != null) {
-      parent.printPath();
-      System.out.print("/" + getName());
-    }
+    if (parent != null)
+      System.out.print(getPath());
   }
 
   /**
@@ -133,13 +232,25 @@ public abstract class FileSystemElement
    * Moves the file system element to the specified directory.
    *
    * @param newParent the new parent directory
+   * @throws IllegalArgumentException if the new parent directory already
+   *                                  contains an element with the same name or
+   *                                  is this element or one of its descendants
    */
   public void move(final Directory newParent) {
-    if (parent == null)
+    if (parent == null || newParent == parent)
       return;
-    parent.remove(this);
+    for (Directory d = newParent; d != null; d = d.getParent()) {
+      if (d == this)
+        throw new IllegalArgumentException(
+            "Cannot move a directory into itself");
+    }
+    // Add before removing so that concurrent lookups always find the element
+    // under at least one of the two parents.
+    if (!newParent.add(this))
+      throw new IllegalArgumentException("Element already exists");
+    final Directory oldParent = parent;
     setParent(newParent);
-    newParent.add(this);
+    oldParent.remove(this);
   }
 
   /**
@@ -162,14 +273,13 @@ public abstract class FileSystemElement
   public abstract FileSystemElement recFind(String name);
 
   /**
-   * Prints the file system element as a tree with the specified level.
+   * Prints the file system element and its descendants as a tree with the
+   * specified level.
    *
    * @param level the level of the tree
    */
   public void printTree(final int level) {
-    for (int i = 0; i < level; i++)
-      System.out.print("  ");
-    System.out.println(this);
+    TreeRenderer.printTree(this, level);
   }
 
   /**
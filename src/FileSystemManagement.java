@@ -1,9 +1,20 @@
 package src;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
 /**
  * Manages a file system.
  */
 public class FileSystemManagement {
+  /**
+   * The number of journal records after which a checkpoint is written.
+   */
+  private static final long CHECKPOINT_INTERVAL = 10000;
 
   /**
    * Prints the menu and returns the user's choice.
@@ -20,6 +31,7 @@ public class FileSystemManagement {
     System.out.println("7. Print directory tree");
     System.out.println("8. Sort contents by date");
     System.out.println("9. Exit");
+    System.out.println("10. Dump metrics");
     System.out.print("Enter your choice: ");
     return Integer.parseInt(System.console().readLine());
   }
@@ -28,16 +40,59 @@ public class FileSystemManagement {
    * Manages the file system.
    */
   private final FileSystem fs;
+  /**
+   * The snapshot the file system is loaded from and saved to, or null.
+   */
+  private final Path snapshot;
+  /**
+   * The journal the changes are recorded in, or null.
+   */
+  private final Journal journal;
 
   /**
    * Constructs a new FileSystemManagement object.
    */
-  public FileSystemManagement() { fs = new FileSystem(); }
+  public FileSystemManagement() {
+    fs = new FileSystem();
+    snapshot = null;
+    journal = null;
+  }
+
+  /**
+   * Constructs a new FileSystemManagement object that recovers the file system
+   * from the specified snapshot and its journal, records every change in the
+   * journal and saves a new snapshot on exit.
+   * @param snapshot the snapshot file
+   * @throws IOException if the snapshot or the journal cannot be loaded
+   */
+  public FileSystemManagement(final Path snapshot) throws IOException {
+    this(snapshot, Journal.SyncPolicy.COMMIT);
+  }
+
+  /**
+   * Constructs a new FileSystemManagement object that recovers the file system
+   * from the specified snapshot and its journal, records every change in the
+   * journal with the specified sync policy and saves a new snapshot on exit.
+   * @param snapshot the snapshot file
+   * @param policy   when the journal is forced to disk
+   * @throws IOException if the snapshot or the journal cannot be loaded
+   */
+  public FileSystemManagement(final Path snapshot,
+                              final Journal.SyncPolicy policy)
+      throws IOException {
+    this.snapshot = snapshot;
+    fs = new FileSystem();
+    journal = Journal.open(
+        fs, snapshot,
+        snapshot.resolveSibling(snapshot.getFileName() + ".journal"), policy);
+    journal.setCheckpointInterval(CHECKPOINT_INTERVAL);
+  }
 
   /**
    * Runs the file system management program.
    */
   public void run() {
+    registerMetrics();
     boolean exit = false;
     while (!exit) {
       int choice = -1;
@@ -73,26 +128,61 @@ public class FileSystemManagement {
         sortContentsByDate();
         break;
       case 9:
+        save();
         exit = true;
         break;
+      case 10:
+        dumpMetrics();
+        break;
       default:
         System.out.println("Invalid choice");
       }
     }
   }
 
+  /**
+   * Runs the commands read from the specified reader without printing the
+   * menu, saves the file system and reports the throughput on the standard
+   * error. See {@link BatchDriver} for the commands.
+   * @param in the reader of the commands
+   * @throws IOException if the commands cannot be read or printed
+   */
+  public void runBatch(final BufferedReader in) throws IOException {
+    registerMetrics();
+    final BufferedWriter out =
+        new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    final BatchDriver driver = new BatchDriver(fs, out);
+    driver.run(in);
+    save();
+    System.err.println(driver.summary());
+  }
+
+  /**
+   * Saves the file system to the snapshot, if there is one.
+   */
+  private void save() {
+    if (snapshot == null)
+      return;
+    try {
+      fs.checkpoint();
+      journal.close();
+      System.out.println("Saved to " + snapshot);
+    } catch (final IOException | UncheckedIOException e) {
+      System.out.println("Could not save: " + e.getMessage());
+    }
+  }
+
   /**
    * Changes the current directory.
    */
   private void changeDirectory() {
-    System.out.print("Current directory: ");
-    fs.printCurrentPath();
+    System.out.println("Current directory: " + fs.getCurrentPath());
     System.out.print("Enter new directory path: ");
     final String path = System.console().readLine();
     try {
       fs.setCurrentDirectory(path);
-      System.out.print("Current directory changed to: ");
-      fs.printCurrentPath();
+      System.out.println("Current directory changed to: " +
+                         fs.getCurrentPath());
     } catch (final IllegalArgumentException e) {
       System.out.println("Invalid path");
     }
@@ -102,8 +192,8 @@ public class FileSystemManagement {
    * Lists the contents of the current directory.
    */
   private void listDirectoryContents() {
-    System.out.print("Listing contents of directory: ");
-    fs.printCurrentPath();
+    System.out.println("Listing contents of directory: " +
+                       fs.getCurrentPath());
     fs.printCurrentChildren();
   }
 
@@ -111,18 +201,21 @@ public class FileSystemManagement {
    * Creates a file or directory.
    */
   private void createFileOrDirectory() {
-    System.out.print("Current directory: ");
-    fs.printCurrentPath();
+    System.out.println("Current directory: " + fs.getCurrentPath());
     System.out.print("Enter name: ");
     final String name = System.console().readLine();
     System.out.print("Create file or directory? (f/d): ");
     final String choice = System.console().readLine();
-    if (choice.equals("f")) {
-      fs.createFile(name);
-    } else if (choice.equals("d")) {
-      fs.createDirectory(name);
-    } else {
-      System.out.println("Invalid choice");
+    try {
+      if (choice.equals("f")) {
+        fs.createFile(name);
+      } else if (choice.equals("d")) {
+        fs.createDirectory(name);
+      } else {
+        System.out.println("Invalid choice");
+      }
+    } catch (final IllegalArgumentException e) {
+      System.out.println("Invalid name");
     }
   }
 
@@ -130,8 +223,7 @@ public class FileSystemManagement {
    * Deletes a file or directory.
    */
   private void deleteFileOrDirectory() {
-    System.out.print("Current directory: ");
-    fs.printCurrentPath();
+    System.out.println("Current directory: " + fs.getCurrentPath());
     System.out.print("Enter name: ");
     final String name = System.console().readLine();
     try {
@@ -146,8 +238,7 @@ public class FileSystemManagement {
    * Moves a file or directory.
    */
   private void moveFileOrDirectory() {
-    System.out.print("Current directory: ");
-    fs.printCurrentPath();
+    System.out.println("Current directory: " + fs.getCurrentPath());
     System.out.print("Enter name: ");
     final String name = System.console().readLine();
     System.out.print("Enter new parent directory path: ");
@@ -168,9 +259,7 @@ public class FileSystemManagement {
     final String name = System.console().readLine();
     final FileSystemElement found = fs.recFind(name);
     if (found != null) {
-      System.out.print("Found: ");
-      found.printPath();
-      System.out.println();
+      System.out.println("Found: " + found.getPath());
     } else {
       System.out.println("Not found");
     }
@@ -181,11 +270,24 @@ public class FileSystemManagement {
    */
   private void printDirectoryTree() { fs.printTree(); }
 
+  /**
+   * Prints the operation metrics.
+   */
+  private void dumpMetrics() { System.out.print(Metrics.dump()); }
+
+  /**
+   * Makes the operation metrics available over JMX, if they are enabled.
+   */
+  private static void registerMetrics() {
+    if (Metrics.ENABLED)
+      Metrics.registerMBean();
+  }
+
   /**
    * Sorts the contents of the current directory by date.
    */
   private void sortContentsByDate() {
-    fs.getCurrentDirectory().sort();
+    fs.sort(fs.getCurrentDirectory(), SortOrder.CREATION_DATE);
     System.out.println("Contents sorted by date");
   }
 }
@@ -0,0 +1,571 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of the changes made to a file system, replayed on top
+ * of the latest snapshot after a restart.
+ *
+ * <p>Each record holds its length, a CRC32 checksum and the operation with
+ * its arguments, so a record torn by a crash is detected and dropped on
+ * recovery. Records are collected in memory and written out in batches. When
+ * a change must be durable before it returns, the threads waiting at the same
+ * time share one fsync: the first one writes and forces everything appended
+ * so far while the others wait for it.
+ */
+public class Journal implements Closeable {
+  /**
+   * When appended records are forced to disk.
+   */
+  public enum SyncPolicy {
+    /**
+     * Every change waits until its record is on disk. Concurrent changes share
+     * one fsync.
+     */
+    COMMIT,
+    /**
+     * Records are forced to disk periodically by a background thread.
+     */
+    INTERVAL,
+    /**
+     * Records are only forced on checkpoint and close.
+     */
+    NONE
+  }
+
+  /**
+   * The operations recorded in the journal.
+   */
+  public enum Op {
+    /**
+     * Creates a file: parent path and name.
+     */
+    CREATE_FILE,
+    /**
+     * Creates a directory: parent path and name.
+     */
+    CREATE_DIRECTORY,
+    /**
+     * Deletes an element: parent path and name.
+     */
+    DELETE,
+    /**
+     * Moves an element: parent path, name and new parent path.
+     */
+    MOVE,
+    /**
+     * Renames an element: parent path, name and new name.
+     */
+    RENAME,
+    /**
+     * Applies a batch of the operations above: for each, the operation name,
+     * the parent path, the name and the third argument, empty if there is
+     * none.
+     */
+    BATCH
+  }
+
+  /**
+   * The size of a record header: payload length and checksum.
+   */
+  private static final int HEADER_SIZE = 8;
+  /**
+   * The amount of buffered records that triggers a write without forcing.
+   */
+  private static final int WRITE_THRESHOLD = 1 << 20;
+  /**
+   * The default interval of the {@link SyncPolicy#INTERVAL} policy.
+   */
+  private static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+  /**
+   * The journal file.
+   */
+  private final Path path;
+  /**
+   * The snapshot that checkpoints are written to.
+   */
+  private final Path snapshot;
+  /**
+   * The channel of the journal file.
+   */
+  private final FileChannel channel;
+  /**
+   * When records are forced to disk.
+   */
+  private final SyncPolicy policy;
+  /**
+   * The background thread of the {@link SyncPolicy#INTERVAL} policy, or null.
+   */
+  private final ScheduledExecutorService syncer;
+  /**
+   * Guards the fields below.
+   */
+  private final Object lock = new Object();
+  /**
+   * The records not yet written to the channel.
+   */
+  private byte[] buffer = new byte[1 << 16];
+  /**
+   * The number of bytes used in the buffer.
+   */
+  private int length;
+  /**
+   * A spare buffer to swap in while the other is being written.
+   */
+  private byte[] spare = new byte[1 << 16];
+  /**
+   * The sequence number of the last appended record.
+   */
+  private long appended;
+  /**
+   * The sequence number of the last record written to the channel.
+   */
+  private long written;
+  /**
+   * The sequence number of the last record forced to disk.
+   */
+  private long durable;
+  /**
+   * Whether a thread is writing the buffered records.
+   */
+  private boolean flushing;
+  /**
+   * The error that lost buffered records, or null. Once set, the journal no
+   * longer accepts records, since records written after the lost ones could
+   * not be replayed.
+   */
+  private IOException failure;
+  /**
+   * The number of records appended since the last checkpoint.
+   */
+  private long sinceCheckpoint;
+  /**
+   * The number of records after which a checkpoint is due, zero for never.
+   */
+  private long checkpointInterval;
+
+  /**
+   * Constructs a new Journal object appending to the specified file. Use
+   * {@link #open} to recover a file system and attach a journal to it.
+   *
+   * @param path     the journal file
+   * @param snapshot the snapshot that checkpoints are written to
+   * @param policy   when records are forced to disk
+   * @param interval the interval of the {@link SyncPolicy#INTERVAL} policy, in
+   *                 milliseconds
+   * @throws IOException if the file cannot be opened
+   */
+  public Journal(final Path path, final Path snapshot, final SyncPolicy policy,
+                 final long interval) throws IOException {
+    this.path = path;
+    this.snapshot = snapshot;
+    this.policy = policy;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    if (policy == SyncPolicy.INTERVAL) {
+      syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "journal-sync");
+        t.setDaemon(true);
+        return t;
+      });
+      syncer.scheduleWithFixedDelay(this::syncAll, interval, interval,
+                                    TimeUnit.MILLISECONDS);
+    } else {
+      syncer = null;
+    }
+  }
+
+  /**
+   * Recovers the specified file system from the snapshot and the journal, then
+   * attaches a new journal to it so that every further change is recorded.
+   * Records torn by a crash at the end of the journal are dropped.
+   *
+   * @param fs       the file system to recover into
+   * @param snapshot the snapshot file, which need not exist
+   * @param path     the journal file, which need not exist
+   * @param policy   when records are forced to disk
+   * @return the attached journal
+   * @throws IOException if the snapshot or the journal cannot be read
+   */
+  public static Journal open(final FileSystem fs, final Path snapshot,
+                             final Path path, final SyncPolicy policy)
+      throws IOException {
+    if (Files.exists(snapshot))
+      SnapshotFile.load(snapshot, fs);
+    if (Files.exists(path)) {
+      final long valid = replay(path, fs);
+      try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        if (ch.size() > valid)
+          ch.truncate(valid);
+      }
+    }
+    final Journal journal =
+        new Journal(path, snapshot, policy, DEFAULT_INTERVAL_MILLIS);
+    fs.setJournal(journal);
+    return journal;
+  }
+
+  /**
+   * Applies the records of the specified journal to the specified file system,
+   * which must not have a journal attached. A batch record is checked whole
+   * and then applied as one transaction, so it is never left half applied.
+   *
+   * @param path the journal file
+   * @param fs   the file system to apply the records to
+   * @return the length of the valid part of the journal, in bytes
+   * @throws IOException if the journal cannot be read or a record cannot be
+   *                     applied
+   */
+  public static long replay(final Path path, final FileSystem fs)
+      throws IOException {
+    final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+    final CRC32 crc = new CRC32();
+    while (buf.remaining() >= HEADER_SIZE) {
+      final int start = buf.position();
+      final int size = buf.getInt();
+      final int checksum = buf.getInt();
+      if (size <= 0 || size > buf.remaining())
+        return start;
+      crc.reset();
+      crc.update(buf.array(), buf.position(), size);
+      if ((int)crc.getValue() != checksum)
+        return start;
+      final int end = buf.position() + size;
+      final Op op = Op.values()[buf.get()];
+      if (op == Op.BATCH) {
+        // Check the whole batch before applying it, so that it is replayed
+        // whole or not at all.
+        final Transaction batch = fs.transaction();
+        do {
+          final Op step = Op.valueOf(readString(buf));
+          final String parentPath = readString(buf);
+          final String name = readString(buf);
+          final String arg = readString(buf);
+          add(batch, step, parentPath, name, arg.isEmpty() ? null : arg);
+        } while (buf.position() < end);
+        try {
+          batch.commit();
+        } catch (final IllegalArgumentException | IllegalStateException e) {
+          throw new IOException("Cannot replay BATCH at offset " + start, e);
+        }
+        continue;
+      }
+      final String parentPath = readString(buf);
+      final String name = readString(buf);
+      final String arg = buf.position() < end ? readString(buf) : null;
+      try {
+        apply(fs, op, parentPath, name, arg);
+      } catch (final IllegalArgumentException e) {
+        throw new IOException("Cannot replay " + op + " " + parentPath + " " +
+                                  name + " at offset " + start,
+                              e);
+      }
+    }
+    return buf.position();
+  }
+
+  /**
+   * Adds one recorded operation of a batch to a transaction.
+   *
+   * @param batch      the transaction
+   * @param op         the operation
+   * @param parentPath the path of the parent directory
+   * @param name       the name of the element
+   * @param arg        the extra argument of the operation, or null
+   * @throws IOException if the operation cannot be part of a batch
+   */
+  private static void add(final Transaction batch, final Op op,
+                          final String parentPath, final String name,
+                          final String arg) throws IOException {
+    switch (op) {
+    case CREATE_FILE:
+      batch.createFile(parentPath, name);
+      break;
+    case CREATE_DIRECTORY:
+      batch.createDirectory(parentPath, name);
+      break;
+    case DELETE:
+      batch.delete(parentPath, name);
+      break;
+    case MOVE:
+      batch.move(parentPath, name, arg);
+      break;
+    case RENAME:
+      batch.rename(parentPath, name, arg);
+      break;
+    default:
+      throw new IOException("Cannot replay " + op + " in a batch");
+    }
+  }
+
+  /**
+   * Applies one recorded operation.
+   *
+   * @param fs         the file system
+   * @param op         the operation
+   * @param parentPath the path of the parent directory
+   * @param name       the name of the element
+   * @param arg        the extra argument of the operation, or null
+   */
+  private static void apply(final FileSystem fs, final Op op,
+                            final String parentPath, final String name,
+                            final String arg) {
+    final Directory parent = fs.findDirectory(parentPath);
+    if (parent == null)
+      throw new IllegalArgumentException("Directory not found");
+    switch (op) {
+    case CREATE_FILE:
+      fs.createFile(parent, name);
+      break;
+    case CREATE_DIRECTORY:
+      fs.createDirectory(parent, name);
+      break;
+    case DELETE:
+      fs.delete(parent, name);
+      break;
+    case MOVE:
+      fs.move(parent, name, arg);
+      break;
+    case RENAME:
+      fs.rename(parent, name, arg);
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown operation");
+    }
+  }
+
+  /**
+   * Sets the number of records after which {@link #needsCheckpoint()} reports
+   * that a checkpoint is due.
+   *
+   * @param records the number of records, zero for never
+   */
+  public void setCheckpointInterval(final long records) {
+    synchronized (lock) {
+      checkpointInterval = records;
+    }
+  }
+
+  /**
+   * Returns whether enough records have been appended since the last
+   * checkpoint that a new one is due.
+   *
+   * @return true if a checkpoint is due, false otherwise
+   */
+  public boolean needsCheckpoint() {
+    synchronized (lock) {
+      return checkpointInterval > 0 && sinceCheckpoint >= checkpointInterval;
+    }
+  }
+
+  /**
+   * Appends a record without waiting for it to reach the disk.
+   *
+   * @param op   the operation
+   * @param args the arguments of the operation
+   * @return the sequence number of the record, to pass to {@link #sync}
+   * @throws UncheckedIOException if buffered records cannot be written out
+   */
+  public long append(final Op op, final String... args) {
+    final byte[][] encoded = new byte[args.length][];
+    int size = 1;
+    for (int i = 0; i < args.length; i++) {
+      encoded[i] = args[i].getBytes(StandardCharsets.UTF_8);
+      size += 4 + encoded[i].length;
+    }
+    final long seq;
+    final boolean full;
+    synchronized (lock) {
+      checkFailure();
+      if (length + HEADER_SIZE + size > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2,
+                                                length + HEADER_SIZE + size));
+      final ByteBuffer buf =
+          ByteBuffer.wrap(buffer, length, HEADER_SIZE + size);
+      buf.putInt(size).putInt(0).put((byte)op.ordinal());
+      for (final byte[] arg : encoded)
+        buf.putInt(arg.length).put(arg);
+      final CRC32 crc = new CRC32();
+      crc.update(buffer, length + HEADER_SIZE, size);
+      ByteBuffer.wrap(buffer, length + 4, 4).putInt((int)crc.getValue());
+      length += HEADER_SIZE + size;
+      seq = ++appended;
+      sinceCheckpoint++;
+      full = length >= WRITE_THRESHOLD;
+    }
+    if (full && policy != SyncPolicy.COMMIT)
+      flush(seq, false);
+    return seq;
+  }
+
+  /**
+   * Waits, if the sync policy asks for it, until the record with the specified
+   * sequence number is on disk.
+   *
+   * @param seq the sequence number returned by {@link #append}
+   * @throws UncheckedIOException if the records cannot be written
+   */
+  public void sync(final long seq) {
+    if (policy == SyncPolicy.COMMIT)
+      flush(seq, true);
+  }
+
+  /**
+   * Forces every appended record to disk.
+   *
+   * @throws UncheckedIOException if the records cannot be written
+   */
+  public void syncAll() {
+    final long seq;
+    synchronized (lock) {
+      seq = appended;
+    }
+    flush(seq, true);
+  }
+
+  /**
+   * Writes a snapshot of the specified file system and empties the journal.
+   * The journal is only truncated once the snapshot is durable. The caller
+   * must make sure the file system does not change meanwhile.
+   *
+   * @param fs the file system to save
+   * @throws IOException if the snapshot or the journal cannot be written
+   */
+  public void checkpoint(final FileSystem fs) throws IOException {
+    syncAll();
+    SnapshotFile.save(fs, snapshot);
+    synchronized (lock) {
+      channel.truncate(0);
+      channel.position(0);
+      channel.force(true);
+      sinceCheckpoint = 0;
+    }
+  }
+
+  /**
+   * Forces every appended record to disk and closes the journal file.
+   *
+   * @throws IOException if the records cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (syncer != null)
+      syncer.shutdown();
+    try {
+      syncAll();
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Returns the journal file.
+   *
+   * @return the journal file
+   */
+  public Path getPath() { return path; }
+
+  /**
+   * Writes the buffered records until the record with the specified sequence
+   * number has been written, and forced if asked. Only one thread writes at a
+   * time; the others wait and find their records written by it.
+   *
+   * @param seq   the sequence number to reach
+   * @param force whether the records must be forced to disk
+   * @throws UncheckedIOException if the records cannot be written
+   */
+  private void flush(final long seq, final boolean force) {
+    final byte[] out;
+    final int n;
+    final long target;
+    synchronized (lock) {
+      while ((force ? durable : written) < seq && flushing &&
+             failure == null) {
+        try {
+          lock.wait();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new UncheckedIOException(
+              new IOException("Interrupted while syncing the journal"));
+        }
+      }
+      if ((force ? durable : written) >= seq)
+        return;
+      checkFailure();
+      flushing = true;
+      out = buffer;
+      n = length;
+      target = appended;
+      buffer = spare;
+      length = 0;
+    }
+    IOException error = null;
+    try {
+      final ByteBuffer buf = ByteBuffer.wrap(out, 0, n);
+      while (buf.hasRemaining())
+        channel.write(buf);
+      if (force)
+        channel.force(false);
+    } catch (final IOException e) {
+      error = e;
+      throw new UncheckedIOException(e);
+    } finally {
+      synchronized (lock) {
+        spare = out;
+        if (error == null) {
+          written = target;
+          if (force)
+            durable = target;
+        } else {
+          // The records may be partly written, so they cannot be retried.
+          failure = error;
+        }
+        flushing = false;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Throws if buffered records have been lost. Must be called while holding
+   * the lock.
+   *
+   * @throws UncheckedIOException if the journal has failed
+   */
+  private void checkFailure() {
+    if (failure != null)
+      throw new UncheckedIOException(
+          new IOException("Journal failed, records were lost", failure));
+  }
+
+  /**
+   * Reads a length prefixed UTF-8 string.
+   *
+   * @param buf the buffer to read from
+   * @return the string
+   */
+  private static String readString(final ByteBuffer buf) {
+    final int n = buf.getInt();
+    final String s =
+        new String(buf.array(), buf.position(), n, StandardCharsets.UTF_8);
+    buf.position(buf.position() + n);
+    return s;
+  }
+}
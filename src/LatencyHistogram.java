@@ -0,0 +1,147 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with log-linear buckets, in the manner of
+ * HdrHistogram: every power of two is split into eight buckets, so any
+ * recorded value is known to within an eighth whatever its magnitude, and
+ * the whole range of a long fits in a few hundred counters. Recording is a
+ * few shifts and one atomic increment, and is safe from any thread.
+ */
+public final class LatencyHistogram {
+  /**
+   * The base two logarithm of the number of buckets per power of two.
+   */
+  private static final int SUB_BITS = 3;
+  /**
+   * The number of buckets per power of two.
+   */
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  /**
+   * The number of buckets.
+   */
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+  /**
+   * The number of values in each bucket.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  /**
+   * The number of recorded values.
+   */
+  private final LongAdder count = new LongAdder();
+  /**
+   * The sum of the recorded values.
+   */
+  private final LongAdder sum = new LongAdder();
+  /**
+   * The largest recorded value.
+   */
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records a value.
+   *
+   * @param value the value, negative values counting as zero
+   */
+  public void record(final long value) {
+    final long v = Math.max(value, 0);
+    counts.incrementAndGet(bucketOf(v));
+    count.increment();
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  /**
+   * Returns the number of recorded values.
+   *
+   * @return the number of values
+   */
+  public long getCount() { return count.sum(); }
+
+  /**
+   * Returns the mean of the recorded values.
+   *
+   * @return the mean, or zero if there are none
+   */
+  public double getMean() {
+    final long n = count.sum();
+    return n == 0 ? 0 : (double)sum.sum() / n;
+  }
+
+  /**
+   * Returns the largest recorded value.
+   *
+   * @return the largest value, or zero if there are none
+   */
+  public long getMax() { return max.get(); }
+
+  /**
+   * Returns a value that the specified fraction of the recorded values do
+   * not exceed. The value is the upper bound of a bucket, so it is at most
+   * an eighth above the exact one.
+   *
+   * @param fraction the fraction, between zero and one
+   * @return the percentile, or zero if there are no values
+   */
+  public long getPercentile(final double fraction) {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++)
+      total += counts.get(i);
+    if (total == 0)
+      return 0;
+    final long rank = Math.max(1, (long)Math.ceil(fraction * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank)
+        return Math.min(upperBoundOf(i), getMax());
+    }
+    return getMax();
+  }
+
+  /**
+   * Forgets all the recorded values. Values recorded meanwhile may be kept
+   * in part.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++)
+      counts.set(i, 0);
+    count.reset();
+    sum.reset();
+    max.reset();
+  }
+
+  /**
+   * Returns the bucket of a value.
+   *
+   * @param v the value, not negative
+   * @return the index of the bucket
+   */
+  private static int bucketOf(final long v) {
+    if (v < SUB_COUNT)
+      return (int)v;
+    final int exponent = 63 - Long.numberOfLeadingZeros(v);
+    final int sub = (int)(v >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+    return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  /**
+   * Returns the largest value of a bucket.
+   *
+   * @param bucket the index of the bucket
+   * @return the upper bound of the bucket
+   */
+  private static long upperBoundOf(final int bucket) {
+    if (bucket < SUB_COUNT)
+      return bucket;
+    final int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+    final long sub = bucket % SUB_COUNT;
+    final long width = 1L << (exponent - SUB_BITS);
+    final long upper = ((SUB_COUNT + sub) << (exponent - SUB_BITS)) + width - 1;
+    return upper < 0 ? Long.MAX_VALUE : upper;
+  }
+}
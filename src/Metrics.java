@@ -0,0 +1,319 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the file system operations. Collection
+ * is switched on with the {@code fs.metrics} system property. The switch is a
+ * constant, so when it is off the JIT compiles the instrumentation away and
+ * the operations pay nothing for it.
+ *
+ * <p>Operations are timed with {@link #start()} and {@link #stop}; a lazy
+ * operation, such as a stream, is only counted when it is created, and the
+ * elements it visits are added as it goes.
+ */
+public final class Metrics {
+  /**
+   * Whether the metrics are collected.
+   */
+  public static final boolean ENABLED = Boolean.getBoolean("fs.metrics");
+
+  /**
+   * The instrumented operations.
+   */
+  public enum Op {
+    /**
+     * Resolving the path of a directory.
+     */
+    FIND_DIRECTORY,
+    /**
+     * Finding an element by name.
+     */
+    RECFIND,
+    /**
+     * Finding all the elements with a name.
+     */
+    FIND_ALL,
+    /**
+     * Finding elements by name pattern.
+     */
+    FIND_BY_NAME,
+    /**
+     * Finding elements by path glob.
+     */
+    GLOB,
+    /**
+     * Creating a file.
+     */
+    CREATE_FILE,
+    /**
+     * Creating a directory.
+     */
+    CREATE_DIRECTORY,
+    /**
+     * Deleting an element and its subtree.
+     */
+    DELETE,
+    /**
+     * Moving an element.
+     */
+    MOVE,
+    /**
+     * Renaming an element.
+     */
+    RENAME,
+    /**
+     * Committing a transaction.
+     */
+    COMMIT,
+    /**
+     * Changing the listing order of a directory.
+     */
+    SORT,
+    /**
+     * Importing a real directory tree.
+     */
+    IMPORT,
+    /**
+     * Printing the whole tree.
+     */
+    PRINT_TREE,
+    /**
+     * Walking a subtree in parallel.
+     */
+    WALK
+  }
+
+  /**
+   * The number of calls of each operation.
+   */
+  private static final Map<Op, LongAdder> COUNTS = new EnumMap<>(Op.class);
+  /**
+   * The number of elements visited by each operation.
+   */
+  private static final Map<Op, LongAdder> VISITED = new EnumMap<>(Op.class);
+  /**
+   * The durations of each operation.
+   */
+  private static final Map<Op, LatencyHistogram> LATENCIES =
+      new EnumMap<>(Op.class);
+
+  static {
+    for (final Op op : Op.values()) {
+      COUNTS.put(op, new LongAdder());
+      VISITED.put(op, new LongAdder());
+      LATENCIES.put(op, new LatencyHistogram());
+    }
+  }
+
+  /**
+   * Prevents instantiation.
+   */
+  private Metrics() {}
+
+  /**
+   * Starts timing an operation.
+   *
+   * @return the start time to pass to {@link #stop}, or zero if the metrics
+   *         are disabled
+   */
+  public static long start() { return ENABLED ? System.nanoTime() : 0; }
+
+  /**
+   * Counts a finished operation and records its duration.
+   *
+   * @param op    the operation
+   * @param start the time returned by {@link #start()}
+   */
+  public static void stop(final Op op, final long start) {
+    if (ENABLED) {
+      COUNTS.get(op).increment();
+      LATENCIES.get(op).record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Counts a finished operation, records its duration and adds the elements
+   * it visited.
+   *
+   * @param op      the operation
+   * @param start   the time returned by {@link #start()}
+   * @param visited the number of elements the operation visited
+   */
+  public static void stop(final Op op, final long start, final long visited) {
+    if (ENABLED) {
+      stop(op, start);
+      VISITED.get(op).add(visited);
+    }
+  }
+
+  /**
+   * Counts an operation without timing it.
+   *
+   * @param op the operation
+   */
+  public static void count(final Op op) {
+    if (ENABLED)
+      COUNTS.get(op).increment();
+  }
+
+  /**
+   * Adds elements visited by an operation.
+   *
+   * @param op      the operation
+   * @param visited the number of visited elements
+   */
+  public static void visited(final Op op, final long visited) {
+    if (ENABLED)
+      VISITED.get(op).add(visited);
+  }
+
+  /**
+   * Returns the number of calls of an operation.
+   *
+   * @param op the operation
+   * @return the count
+   */
+  public static long getCount(final Op op) { return COUNTS.get(op).sum(); }
+
+  /**
+   * Returns the number of elements an operation has visited in all.
+   *
+   * @param op the operation
+   * @return the number of visited elements
+   */
+  public static long getVisited(final Op op) { return VISITED.get(op).sum(); }
+
+  /**
+   * Returns the durations of an operation.
+   *
+   * @param op the operation
+   * @return the histogram of the durations, in nanoseconds
+   */
+  public static LatencyHistogram getLatency(final Op op) {
+    return LATENCIES.get(op);
+  }
+
+  /**
+   * Forgets everything collected so far.
+   */
+  public static void reset() {
+    for (final Op op : Op.values()) {
+      COUNTS.get(op).reset();
+      VISITED.get(op).reset();
+      LATENCIES.get(op).reset();
+    }
+  }
+
+  /**
+   * Returns a table of the operations that have been called, with their
+   * count, visited elements and durations in microseconds.
+   *
+   * @return the table
+   */
+  public static String dump() {
+    final StringBuilder sb = new StringBuilder();
+    if (!ENABLED)
+      return sb.append("Metrics are disabled; run with -Dfs.metrics=true")
+          .append(System.lineSeparator())
+          .toString();
+    sb.append(String.format("%-17s %10s %12s %10s %10s %10s %10s%n",
+                            "operation", "count", "visited", "mean us",
+                            "p50 us", "p99 us", "max us"));
+    for (final Op op : Op.values()) {
+      final long n = getCount(op);
+      if (n == 0)
+        continue;
+      final LatencyHistogram h = LATENCIES.get(op);
+      sb.append(String.format("%-17s %10d %12d %10.1f %10.1f %10.1f %10.1f%n",
+                              op, n, getVisited(op), h.getMean() / 1e3,
+                              h.getPercentile(0.5) / 1e3,
+                              h.getPercentile(0.99) / 1e3,
+                              h.getMax() / 1e3));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Registers the management interface with the platform MBean server, once.
+   *
+   * @throws IllegalStateException if the interface cannot be registered
+   */
+  public static void registerMBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          new Bean(), new ObjectName("src:type=Metrics"));
+    } catch (final InstanceAlreadyExistsException e) {
+      // Already registered.
+    } catch (final JMException e) {
+      throw new IllegalStateException("Cannot register metrics", e);
+    }
+  }
+
+  /**
+   * Returns a figure of every operation.
+   *
+   * @param figure the figure of one operation
+   * @return the figures by operation name
+   */
+  private static Map<String, Long>
+  byOperation(final ToLongFunction<Op> figure) {
+    final Map<String, Long> map = new LinkedHashMap<>();
+    for (final Op op : Op.values())
+      map.put(op.name(), figure.applyAsLong(op));
+    return map;
+  }
+
+  /**
+   * The management interface.
+   */
+  private static final class Bean implements MetricsMXBean {
+    @Override
+    public boolean isEnabled() {
+      return ENABLED;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+      return byOperation(Metrics::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getNodesVisited() {
+      return byOperation(Metrics::getVisited);
+    }
+
+    @Override
+    public Map<String, Long> getMedianNanos() {
+      return byOperation(op -> getLatency(op).getPercentile(0.5));
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+      return byOperation(op -> getLatency(op).getPercentile(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+      return byOperation(op -> getLatency(op).getMax());
+    }
+
+    @Override
+    public String dump() {
+      return Metrics.dump();
+    }
+
+    @Override
+    public void reset() {
+      Metrics.reset();
+    }
+  }
+}
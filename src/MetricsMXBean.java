@@ -0,0 +1,63 @@
+package src;
+
+import java.util.Map;
+
+/**
+ * The management interface of the file system metrics, registered as
+ * {@code src:type=Metrics}. The maps are keyed by operation name.
+ */
+public interface MetricsMXBean {
+  /**
+   * Returns whether the metrics are being collected.
+   *
+   * @return true if the metrics are enabled
+   */
+  boolean isEnabled();
+
+  /**
+   * Returns the number of calls of each operation.
+   *
+   * @return the counts
+   */
+  Map<String, Long> getCounts();
+
+  /**
+   * Returns the number of elements each operation has visited in all.
+   *
+   * @return the numbers of visited elements
+   */
+  Map<String, Long> getNodesVisited();
+
+  /**
+   * Returns the median duration of each operation.
+   *
+   * @return the medians, in nanoseconds
+   */
+  Map<String, Long> getMedianNanos();
+
+  /**
+   * Returns the 99th percentile of the duration of each operation.
+   *
+   * @return the percentiles, in nanoseconds
+   */
+  Map<String, Long> getP99Nanos();
+
+  /**
+   * Returns the longest duration of each operation.
+   *
+   * @return the longest durations, in nanoseconds
+   */
+  Map<String, Long> getMaxNanos();
+
+  /**
+   * Returns a table of all the metrics.
+   *
+   * @return the table, one line per operation
+   */
+  String dump();
+
+  /**
+   * Forgets everything collected so far.
+   */
+  void reset();
+}
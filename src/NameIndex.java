@@ -0,0 +1,149 @@
+package src;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Inverted index from names to the file system elements with that name. The
+ * index is safe to update from several threads at once.
+ */
+public class NameIndex {
+  /**
+   * The elements with each name.
+   */
+  private final Map<String, Set<FileSystemElement>> elements =
+      new ConcurrentHashMap<>();
+  /**
+   * The names that have elements, in order, so that names can be listed by
+   * prefix. A name is added and removed while its entry in
+   * {@link #elements} is being created or dropped.
+   */
+  private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+
+  /**
+   * Adds the specified element under its current name. The element is added
+   * to the set inside the update of its entry, so that a concurrent removal
+   * cannot drop the set between the two.
+   *
+   * @param e the element to add
+   */
+  public void add(final FileSystemElement e) {
+    elements.compute(e.getName(), (k, set) -> {
+      final Set<FileSystemElement> s;
+      if (set == null) {
+        names.add(k);
+        s = ConcurrentHashMap.newKeySet();
+      } else {
+        s = set;
+      }
+      s.add(e);
+      return s;
+    });
+  }
+
+  /**
+   * Removes the specified element, which is indexed under the specified name.
+   *
+   * @param name the name the element is indexed under
+   * @param e    the element to remove
+   */
+  public void remove(final String name, final FileSystemElement e) {
+    elements.computeIfPresent(name, (k, set) -> {
+      set.remove(e);
+      if (!set.isEmpty())
+        return set;
+      names.remove(k);
+      return null;
+    });
+  }
+
+  /**
+   * Adds the specified element and all its descendants.
+   *
+   * @param e the root of the subtree to add
+   */
+  public void addTree(final FileSystemElement e) {
+    add(e);
+    if (e instanceof Directory) {
+      for (final FileSystemElement child : ((Directory)e).getChildren())
+        addTree(child);
+    }
+  }
+
+  /**
+   * Removes the specified element and all its descendants.
+   *
+   * @param e the root of the subtree to remove
+   */
+  public void removeTree(final FileSystemElement e) {
+    remove(e.getName(), e);
+    if (e instanceof Directory) {
+      for (final FileSystemElement child : ((Directory)e).getChildren())
+        removeTree(child);
+    }
+  }
+
+  /**
+   * Moves the specified element from its old name to its current name.
+   *
+   * @param e       the renamed element
+   * @param oldName the previous name of the element
+   */
+  public void rename(final FileSystemElement e, final String oldName) {
+    remove(oldName, e);
+    add(e);
+  }
+
+  /**
+   * Returns all the elements with the specified name, in no particular order.
+   *
+   * @param name the name to search for
+   * @return a read only view of the elements with the name
+   */
+  public Set<FileSystemElement> findAll(final String name) {
+    final Set<FileSystemElement> set = elements.get(name);
+    return set == null ? Collections.emptySet()
+                       : Collections.unmodifiableSet(set);
+  }
+
+  /**
+   * Returns one of the elements with the specified name.
+   *
+   * @param name the name to search for
+   * @return an element with the name, or null if there is none
+   */
+  public FileSystemElement findFirst(final String name) {
+    final Set<FileSystemElement> set = elements.get(name);
+    if (set == null)
+      return null;
+    final Iterator<FileSystemElement> it = set.iterator();
+    return it.hasNext() ? it.next() : null;
+  }
+
+  /**
+   * Returns the names that have elements and start with the specified
+   * prefix, in order. The names are read lazily from a sorted set, so only the
+   * range of the prefix is visited.
+   *
+   * @param prefix the prefix, possibly empty
+   * @return the names
+   */
+  public Stream<String> names(final String prefix) {
+    return names.tailSet(prefix).stream().takeWhile(
+        n -> n.startsWith(prefix));
+  }
+
+  /**
+   * Removes all the elements.
+   */
+  public void clear() {
+    elements.clear();
+    names.clear();
+  }
+}
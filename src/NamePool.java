@@ -0,0 +1,84 @@
+package src;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Shared pool of element names. Names such as "README" repeat across many
+ * elements; pooling them keeps one String per distinct name and lets lookups
+ * compare pooled names by identity before comparing characters.
+ *
+ * <p>The pool holds its names weakly, so a name is forgotten once no element,
+ * snapshot or caller refers to it any more, and deleting elements or dropping
+ * a whole file system gives the memory back. The pool is split into stripes,
+ * each guarded by its own lock, so that elements created in parallel rarely
+ * wait for each other. Nothing relies on names being pooled for correctness:
+ * identity is only tried before equality.
+ */
+public final class NamePool {
+  /**
+   * The number of stripes, a power of two.
+   */
+  private static final int STRIPES = 16;
+  /**
+   * The pooled names by stripe, each mapped to a weak reference to itself.
+   */
+  private static final Stripe[] POOL = new Stripe[STRIPES];
+
+  static {
+    for (int i = 0; i < STRIPES; i++)
+      POOL[i] = new Stripe();
+  }
+
+  /**
+   * Prevents instantiation.
+   */
+  private NamePool() {}
+
+  /**
+   * Returns the pooled string equal to the specified name, adding the name to
+   * the pool if it is new.
+   *
+   * @param name the name
+   * @return the pooled name
+   */
+  public static String intern(final String name) {
+    final int h = name.hashCode();
+    final Stripe stripe = POOL[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    synchronized (stripe) {
+      final WeakReference<String> ref = stripe.names.get(name);
+      final String pooled = ref == null ? null : ref.get();
+      if (pooled != null)
+        return pooled;
+      stripe.names.put(name, new WeakReference<>(name));
+      return name;
+    }
+  }
+
+  /**
+   * Returns the number of pooled names still referred to.
+   *
+   * @return the number of pooled names
+   */
+  public static int size() {
+    int size = 0;
+    for (final Stripe stripe : POOL) {
+      synchronized (stripe) {
+        size += stripe.names.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * One stripe of the pool, locked on itself.
+   */
+  private static final class Stripe {
+    /**
+     * The pooled names of the stripe, each mapped to a weak reference to
+     * itself.
+     */
+    final WeakHashMap<String, WeakReference<String>> names =
+        new WeakHashMap<>();
+  }
+}
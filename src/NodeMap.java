@@ -0,0 +1,221 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable map of snapshot nodes by name, kept as a treap. Every update
+ * returns a new map that copies only the path from the root of the treap to
+ * the changed entry, about log n entries, and shares everything else with the
+ * old map. The empty map is null.
+ *
+ * <p>The priority of an entry is derived from the hash of its name, so the
+ * shape of the treap depends only on its names and not on the order they were
+ * added in.
+ */
+final class NodeMap {
+  /**
+   * The name of the entry.
+   */
+  private final String name;
+  /**
+   * The node of the entry.
+   */
+  private final TreeSnapshot.Node node;
+  /**
+   * The priority of the entry, greater than those of its subtrees.
+   */
+  private final int priority;
+  /**
+   * The entries with smaller names, or null.
+   */
+  private final NodeMap left;
+  /**
+   * The entries with greater names, or null.
+   */
+  private final NodeMap right;
+  /**
+   * The number of entries of the treap rooted here.
+   */
+  private final int size;
+
+  /**
+   * Constructs a new NodeMap object.
+   *
+   * @param name     the name of the entry
+   * @param node     the node of the entry
+   * @param priority the priority of the entry
+   * @param left     the entries with smaller names
+   * @param right    the entries with greater names
+   */
+  private NodeMap(final String name, final TreeSnapshot.Node node,
+                  final int priority, final NodeMap left,
+                  final NodeMap right) {
+    this.name = name;
+    this.node = node;
+    this.priority = priority;
+    this.left = left;
+    this.right = right;
+    this.size = 1 + size(left) + size(right);
+  }
+
+  /**
+   * Returns the number of entries of a map.
+   *
+   * @param map the map, or null
+   * @return the number of entries
+   */
+  static int size(final NodeMap map) { return map == null ? 0 : map.size; }
+
+  /**
+   * Returns the node with the specified name.
+   *
+   * @param map  the map, or null
+   * @param name the name
+   * @return the node, or null if there is none
+   */
+  static TreeSnapshot.Node get(final NodeMap map, final String name) {
+    NodeMap t = map;
+    while (t != null) {
+      final int c = name.compareTo(t.name);
+      if (c == 0)
+        return t.node;
+      t = c < 0 ? t.left : t.right;
+    }
+    return null;
+  }
+
+  /**
+   * Returns a map with the specified node under its name, replacing the node
+   * already there.
+   *
+   * @param map  the map, or null
+   * @param node the node
+   * @return the new map
+   */
+  static NodeMap put(final NodeMap map, final TreeSnapshot.Node node) {
+    final String key = node.getName();
+    if (map == null)
+      return new NodeMap(key, node, priorityOf(key), null, null);
+    final int c = key.compareTo(map.name);
+    if (c == 0)
+      return new NodeMap(key, node, map.priority, map.left, map.right);
+    if (c < 0) {
+      final NodeMap l = put(map.left, node);
+      if (l.priority > map.priority)
+        return new NodeMap(l.name, l.node, l.priority, l.left,
+                           map.with(l.right, map.right));
+      return map.with(l, map.right);
+    }
+    final NodeMap r = put(map.right, node);
+    if (r.priority > map.priority)
+      return new NodeMap(r.name, r.node, r.priority,
+                         map.with(map.left, r.left), r.right);
+    return map.with(map.left, r);
+  }
+
+  /**
+   * Returns a map without the node with the specified name.
+   *
+   * @param map  the map, or null
+   * @param name the name
+   * @return the new map, or the same map if the name is not there
+   */
+  static NodeMap remove(final NodeMap map, final String name) {
+    if (map == null)
+      return null;
+    final int c = name.compareTo(map.name);
+    if (c == 0)
+      return merge(map.left, map.right);
+    if (c < 0) {
+      final NodeMap l = remove(map.left, name);
+      return l == map.left ? map : map.with(l, map.right);
+    }
+    final NodeMap r = remove(map.right, name);
+    return r == map.right ? map : map.with(map.left, r);
+  }
+
+  /**
+   * Returns an iterator over the nodes of a map in name order.
+   *
+   * @param map the map, or null
+   * @return the iterator
+   */
+  static Iterator<TreeSnapshot.Node> iterator(final NodeMap map) {
+    return new Iterator<TreeSnapshot.Node>() {
+      /**
+       * The entries whose node and right subtree are still to visit.
+       */
+      private final Deque<NodeMap> stack = new ArrayDeque<>();
+
+      {
+        descend(map);
+      }
+
+      @Override
+      public boolean hasNext() {
+        return !stack.isEmpty();
+      }
+
+      @Override
+      public TreeSnapshot.Node next() {
+        if (stack.isEmpty())
+          throw new NoSuchElementException();
+        final NodeMap t = stack.pop();
+        descend(t.right);
+        return t.node;
+      }
+
+      /**
+       * Pushes an entry and its chain of left children.
+       *
+       * @param from the entry, or null
+       */
+      private void descend(final NodeMap from) {
+        for (NodeMap t = from; t != null; t = t.left)
+          stack.push(t);
+      }
+    };
+  }
+
+  /**
+   * Returns a copy of this entry with other subtrees.
+   *
+   * @param l the entries with smaller names
+   * @param r the entries with greater names
+   * @return the copy
+   */
+  private NodeMap with(final NodeMap l, final NodeMap r) {
+    return new NodeMap(name, node, priority, l, r);
+  }
+
+  /**
+   * Joins two treaps whose names are all smaller in the first.
+   *
+   * @param a the treap with the smaller names, or null
+   * @param b the treap with the greater names, or null
+   * @return the joined treap
+   */
+  private static NodeMap merge(final NodeMap a, final NodeMap b) {
+    if (a == null)
+      return b;
+    if (b == null)
+      return a;
+    if (a.priority > b.priority)
+      return a.with(a.left, merge(a.right, b));
+    return b.with(merge(a, b.left), b.right);
+  }
+
+  /**
+   * Returns the priority of an entry.
+   *
+   * @param name the name of the entry
+   * @return the priority
+   */
+  private static int priorityOf(final String name) {
+    final int h = name.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
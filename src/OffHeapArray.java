@@ -0,0 +1,192 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Growable array of bytes stored outside the Java heap in direct buffers. Past
+ * its first chunk, the array is made of fixed size chunks, so growing it does
+ * not copy and it can hold more than 2 GB. Ints and longs must be stored at
+ * offsets that are a multiple of their size, so that none of them spans two
+ * chunks.
+ *
+ * <p>New chunks are filled with zeros. The array is not thread safe.
+ */
+final class OffHeapArray {
+  /**
+   * The base two logarithm of the size of a chunk.
+   */
+  static final int CHUNK_SHIFT = 26;
+  /**
+   * The size of a chunk, in bytes.
+   */
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  /**
+   * The mask of the offset within a chunk.
+   */
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * The chunks of the array.
+   */
+  private ByteBuffer[] chunks = new ByteBuffer[0];
+  /**
+   * The number of bytes the chunks hold. While it is less than a chunk, the
+   * array is a single smaller chunk, so that small arrays stay small.
+   */
+  private long capacity;
+
+  /**
+   * Constructs a new OffHeapArray object.
+   *
+   * @param initialCapacity the number of bytes to allocate up front
+   */
+  OffHeapArray(final int initialCapacity) {
+    if (initialCapacity < CHUNK_SIZE) {
+      final int size =
+          Math.max(Integer.highestOneBit(initialCapacity - 1) << 1, 64);
+      chunks = new ByteBuffer[] {allocate(size)};
+      capacity = size;
+    } else {
+      ensure(initialCapacity);
+    }
+  }
+
+  /**
+   * Returns the number of bytes the array can hold without growing.
+   *
+   * @return the capacity, in bytes
+   */
+  long capacity() { return capacity; }
+
+  /**
+   * Grows the array so that it holds at least the specified number of bytes.
+   *
+   * @param bytes the number of bytes needed
+   */
+  void ensure(final long bytes) {
+    if (bytes <= capacity)
+      return;
+    if (capacity > 0 && capacity < CHUNK_SIZE) {
+      // Replace the small chunk by doubling it until it is full size.
+      long size = capacity;
+      while (size < bytes && size < CHUNK_SIZE)
+        size <<= 1;
+      final ByteBuffer grown = allocate((int)size);
+      final ByteBuffer old = chunks[0].duplicate();
+      old.clear();
+      grown.put(old).clear();
+      chunks[0] = grown;
+      capacity = size;
+      if (bytes <= capacity)
+        return;
+    }
+    final int needed = (int)((bytes + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    final int old = chunks.length;
+    chunks = Arrays.copyOf(chunks, needed);
+    for (int i = old; i < needed; i++)
+      chunks[i] = allocate(CHUNK_SIZE);
+    capacity = (long)needed << CHUNK_SHIFT;
+  }
+
+  /**
+   * Reads a byte.
+   *
+   * @param offset the offset of the byte
+   * @return the byte
+   */
+  byte getByte(final long offset) {
+    return chunks[(int)(offset >>> CHUNK_SHIFT)].get(
+        (int)(offset & CHUNK_MASK));
+  }
+
+  /**
+   * Writes a byte.
+   *
+   * @param offset the offset of the byte
+   * @param value  the byte
+   */
+  void putByte(final long offset, final byte value) {
+    chunks[(int)(offset >>> CHUNK_SHIFT)].put((int)(offset & CHUNK_MASK),
+                                              value);
+  }
+
+  /**
+   * Reads an int.
+   *
+   * @param offset the offset of the int, a multiple of four
+   * @return the int
+   */
+  int getInt(final long offset) {
+    return chunks[(int)(offset >>> CHUNK_SHIFT)].getInt(
+        (int)(offset & CHUNK_MASK));
+  }
+
+  /**
+   * Writes an int.
+   *
+   * @param offset the offset of the int, a multiple of four
+   * @param value  the int
+   */
+  void putInt(final long offset, final int value) {
+    chunks[(int)(offset >>> CHUNK_SHIFT)].putInt((int)(offset & CHUNK_MASK),
+                                                 value);
+  }
+
+  /**
+   * Reads a long.
+   *
+   * @param offset the offset of the long, a multiple of eight
+   * @return the long
+   */
+  long getLong(final long offset) {
+    return chunks[(int)(offset >>> CHUNK_SHIFT)].getLong(
+        (int)(offset & CHUNK_MASK));
+  }
+
+  /**
+   * Writes a long.
+   *
+   * @param offset the offset of the long, a multiple of eight
+   * @param value  the long
+   */
+  void putLong(final long offset, final long value) {
+    chunks[(int)(offset >>> CHUNK_SHIFT)].putLong((int)(offset & CHUNK_MASK),
+                                                  value);
+  }
+
+  /**
+   * Copies bytes out of the array. The bytes must not span two chunks.
+   *
+   * @param offset the offset of the first byte
+   * @param dst    the array to copy to
+   * @param length the number of bytes
+   */
+  void getBytes(final long offset, final byte[] dst, final int length) {
+    chunks[(int)(offset >>> CHUNK_SHIFT)].get((int)(offset & CHUNK_MASK), dst,
+                                              0, length);
+  }
+
+  /**
+   * Copies bytes into the array. The bytes must not span two chunks.
+   *
+   * @param offset the offset of the first byte
+   * @param src    the array to copy from
+   * @param length the number of bytes
+   */
+  void putBytes(final long offset, final byte[] src, final int length) {
+    chunks[(int)(offset >>> CHUNK_SHIFT)].put((int)(offset & CHUNK_MASK), src,
+                                              0, length);
+  }
+
+  /**
+   * Allocates a direct buffer in the native byte order.
+   *
+   * @param size the size of the buffer
+   * @return the buffer
+   */
+  private static ByteBuffer allocate(final int size) {
+    return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+  }
+}
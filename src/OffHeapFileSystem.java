@@ -0,0 +1,965 @@
+package src;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A file system whose tree is stored outside the Java heap. Elements are int
+ * ids into columns of direct memory (parent, first and last child, siblings,
+ * name and creation time), names are pooled in an off-heap arena, and the
+ * children of all directories share one off-heap hash table keyed by parent
+ * and name. The heap holds a few dozen buffer objects whatever the size of
+ * the tree, so the garbage collector has nothing to trace.
+ *
+ * <p>It offers the operations of {@link FileSystem} on element ids instead of
+ * objects. The root directory has id 0. Names are kept for the life of the
+ * file system, even after every element with the name is deleted. The file
+ * system is not thread safe.
+ */
+public class OffHeapFileSystem {
+  /**
+   * The id that stands for no element.
+   */
+  public static final int NONE = -1;
+  /**
+   * The id of the root directory.
+   */
+  public static final int ROOT = 0;
+
+  /**
+   * The kind of a free id.
+   */
+  private static final byte FREE = 0;
+  /**
+   * The kind of a directory.
+   */
+  private static final byte DIRECTORY = 1;
+  /**
+   * The kind of a file.
+   */
+  private static final byte FILE = 2;
+  /**
+   * The number of elements the columns are sized for at first.
+   */
+  private static final int INITIAL_NODES = 1024;
+  /**
+   * The size of the buffer trees are rendered into.
+   */
+  private static final int RENDER_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The parent of each element.
+   */
+  private final OffHeapArray parents = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The first child of each directory.
+   */
+  private final OffHeapArray firstChildren =
+      new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The last child of each directory.
+   */
+  private final OffHeapArray lastChildren = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The next sibling of each element, or the next free id of a free id.
+   */
+  private final OffHeapArray nextSiblings = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The previous sibling of each element.
+   */
+  private final OffHeapArray prevSiblings = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The name id of each element.
+   */
+  private final OffHeapArray nameIds = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The next element with the same name as each element.
+   */
+  private final OffHeapArray nextSameNames =
+      new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The previous element with the same name as each element.
+   */
+  private final OffHeapArray prevSameNames =
+      new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The creation time of each element.
+   */
+  private final OffHeapArray times = new OffHeapArray(INITIAL_NODES * 8);
+  /**
+   * The kind of each element.
+   */
+  private final OffHeapArray kinds = new OffHeapArray(INITIAL_NODES);
+  /**
+   * The number of ids ever handed out.
+   */
+  private int idCount;
+  /**
+   * The first free id, or NONE.
+   */
+  private int freeHead = NONE;
+  /**
+   * The number of elements in the tree.
+   */
+  private long size;
+
+  /**
+   * The UTF-8 bytes of all the names.
+   */
+  private final OffHeapArray nameBytes = new OffHeapArray(INITIAL_NODES * 8);
+  /**
+   * The offset after the last name in {@link #nameBytes}.
+   */
+  private long nameEnd;
+  /**
+   * The offset of each name in {@link #nameBytes}.
+   */
+  private final OffHeapArray nameOffsets = new OffHeapArray(INITIAL_NODES * 8);
+  /**
+   * The length in bytes of each name.
+   */
+  private final OffHeapArray nameLengths = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The hash code of each name.
+   */
+  private final OffHeapArray nameHashes = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The first element with each name, or NONE.
+   */
+  private final OffHeapArray nameHeads = new OffHeapArray(INITIAL_NODES * 4);
+  /**
+   * The number of names.
+   */
+  private int nameCount;
+  /**
+   * Open addressing table from name bytes to name id plus one; zero is empty.
+   */
+  private OffHeapArray nameTable;
+  /**
+   * The number of slots of {@link #nameTable} minus one.
+   */
+  private int nameMask;
+
+  /**
+   * Open addressing table from parent and name id to element id plus one;
+   * zero is empty.
+   */
+  private OffHeapArray childTable;
+  /**
+   * The number of slots of {@link #childTable} minus one.
+   */
+  private int childMask;
+  /**
+   * The number of entries in {@link #childTable}.
+   */
+  private long childCount;
+
+  /**
+   * Constructs a new OffHeapFileSystem object holding only a root directory
+   * named "root".
+   */
+  public OffHeapFileSystem() {
+    nameMask = INITIAL_NODES * 2 - 1;
+    nameTable = new OffHeapArray((nameMask + 1) * 4);
+    childMask = INITIAL_NODES * 2 - 1;
+    childTable = new OffHeapArray((childMask + 1) * 4);
+    final int root = allocate(DIRECTORY, intern("root"));
+    parents.putInt(offset(root), NONE);
+    linkSameName(root);
+  }
+
+  /**
+   * Returns the number of elements in the tree, including the root.
+   *
+   * @return the number of elements
+   */
+  public long size() { return size; }
+
+  /**
+   * Returns the name of the specified element.
+   *
+   * @param id the element
+   * @return the name
+   */
+  public String getName(final int id) {
+    check(id);
+    final int name = nameIds.getInt(offset(id));
+    final int length = nameLengths.getInt(offset(name));
+    final byte[] bytes = new byte[length];
+    nameBytes.getBytes(nameOffsets.getLong(offset(name) * 2), bytes, length);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the parent of the specified element.
+   *
+   * @param id the element
+   * @return the parent directory, or NONE for the root
+   */
+  public int getParent(final int id) {
+    check(id);
+    return parents.getInt(offset(id));
+  }
+
+  /**
+   * Returns whether the specified element is a directory.
+   *
+   * @param id the element
+   * @return true if it is a directory, false if it is a file
+   */
+  public boolean isDirectory(final int id) {
+    check(id);
+    return kinds.getByte(id) == DIRECTORY;
+  }
+
+  /**
+   * Returns the creation time of the specified element.
+   *
+   * @param id the element
+   * @return the creation time, in milliseconds since the epoch
+   */
+  public long getCreationTime(final int id) {
+    check(id);
+    return times.getLong(offset(id) * 2);
+  }
+
+  /**
+   * Sets the creation time of the specified element.
+   *
+   * @param id           the element
+   * @param creationTime the creation time, in milliseconds since the epoch
+   */
+  public void setCreationTime(final int id, final long creationTime) {
+    check(id);
+    times.putLong(offset(id) * 2, creationTime);
+  }
+
+  /**
+   * Returns the first child of the specified directory.
+   *
+   * @param id the directory
+   * @return the first child, or NONE if the directory is empty
+   */
+  public int getFirstChild(final int id) {
+    checkDirectory(id);
+    return firstChildren.getInt(offset(id));
+  }
+
+  /**
+   * Returns the next sibling of the specified element.
+   *
+   * @param id the element
+   * @return the next sibling, or NONE if it is the last child
+   */
+  public int getNextSibling(final int id) {
+    check(id);
+    return nextSiblings.getInt(offset(id));
+  }
+
+  /**
+   * Returns the absolute path of the specified element.
+   *
+   * @param id the element
+   * @return the absolute path
+   */
+  public String getPath(final int id) {
+    check(id);
+    if (id == ROOT)
+      return "/";
+    final List<String> names = new ArrayList<>();
+    for (int e = id; e != ROOT; e = parents.getInt(offset(e)))
+      names.add(getName(e));
+    final StringBuilder sb = new StringBuilder();
+    for (int i = names.size() - 1; i >= 0; i--)
+      sb.append('/').append(names.get(i));
+    return sb.toString();
+  }
+
+  /**
+   * Finds the child with the specified name in the specified directory.
+   *
+   * @param parent the directory
+   * @param name   the name of the child
+   * @return the child, or NONE if not found
+   */
+  public int find(final int parent, final String name) {
+    checkDirectory(parent);
+    final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    final int nameId = findName(bytes, hash(bytes));
+    return nameId == NONE ? NONE : findChild(parent, nameId);
+  }
+
+  /**
+   * Finds the directory with the specified absolute path. Trailing slashes
+   * are ignored.
+   *
+   * @param path the absolute path
+   * @return the directory, or NONE if not found
+   */
+  public int findDirectory(final String path) {
+    final int id = find(path);
+    return id != NONE && kinds.getByte(id) == DIRECTORY ? id : NONE;
+  }
+
+  /**
+   * Finds the element with the specified absolute path. Trailing slashes are
+   * ignored.
+   *
+   * @param path the absolute path
+   * @return the element, or NONE if not found
+   */
+  public int find(final String path) {
+    if (path.isEmpty())
+      return ROOT;
+    if (path.charAt(0) != '/')
+      return NONE;
+    int current = ROOT;
+    final int length = path.length();
+    for (int start = 1; start < length;) {
+      int end = path.indexOf('/', start);
+      if (end < 0)
+        end = length;
+      if (end == start) {
+        // An empty component is only allowed in a run of trailing slashes.
+        for (int i = start; i < length; i++) {
+          if (path.charAt(i) != '/')
+            return NONE;
+        }
+        return current;
+      }
+      if (kinds.getByte(current) != DIRECTORY)
+        return NONE;
+      final byte[] bytes =
+          path.substring(start, end).getBytes(StandardCharsets.UTF_8);
+      final int nameId = findName(bytes, hash(bytes));
+      if (nameId == NONE)
+        return NONE;
+      current = findChild(current, nameId);
+      if (current == NONE)
+        return NONE;
+      start = end + 1;
+    }
+    return current;
+  }
+
+  /**
+   * Creates a new file in the specified directory.
+   *
+   * @param parent the directory to create the file in
+   * @param name   the name of the file
+   * @return the new file, or NONE if the name is already taken
+   */
+  public int createFile(final int parent, final String name) {
+    return create(parent, name, FILE);
+  }
+
+  /**
+   * Creates a new directory in the specified directory.
+   *
+   * @param parent the directory to create the directory in
+   * @param name   the name of the directory
+   * @return the new directory, or NONE if the name is already taken
+   */
+  public int createDirectory(final int parent, final String name) {
+    return create(parent, name, DIRECTORY);
+  }
+
+  /**
+   * Deletes the element with the specified name from the specified directory,
+   * together with all its descendants.
+   *
+   * @param parent the directory to delete from
+   * @param name   the name of the element
+   * @return the number of deleted elements
+   * @throws IllegalArgumentException if the element is not found
+   */
+  public long delete(final int parent, final String name) {
+    final int id = find(parent, name);
+    if (id == NONE)
+      throw new IllegalArgumentException("Element not found");
+    detach(id);
+    // Free the subtree leaves first. Each freed element is unlinked from its
+    // parent, so the first child of a directory is always the next to visit
+    // and no stack is needed.
+    long deleted = 0;
+    int e = id;
+    for (;;) {
+      for (int c; kinds.getByte(e) == DIRECTORY &&
+                  (c = firstChildren.getInt(offset(e))) != NONE;)
+        e = c;
+      final int p = parents.getInt(offset(e));
+      if (e != id) {
+        final int next = nextSiblings.getInt(offset(e));
+        firstChildren.putInt(offset(p), next);
+        if (next == NONE)
+          lastChildren.putInt(offset(p), NONE);
+        else
+          prevSiblings.putInt(offset(next), NONE);
+        removeChild(e);
+      }
+      unlinkSameName(e);
+      free(e);
+      deleted++;
+      if (e == id)
+        return deleted;
+      e = p;
+    }
+  }
+
+  /**
+   * Moves the element with the specified name in the specified directory to
+   * another directory.
+   *
+   * @param parent    the directory containing the element
+   * @param name      the name of the element
+   * @param newParent the directory to move the element to
+   * @throws IllegalArgumentException if the element is not found, the new
+   *                                  parent already contains an element with
+   *                                  the name, or is the element or one of
+   *                                  its descendants
+   */
+  public void move(final int parent, final String name, final int newParent) {
+    checkDirectory(newParent);
+    final int id = find(parent, name);
+    if (id == NONE)
+      throw new IllegalArgumentException("Element not found");
+    if (newParent == parent)
+      return;
+    for (int d = newParent; d != NONE; d = parents.getInt(offset(d))) {
+      if (d == id)
+        throw new IllegalArgumentException(
+            "Cannot move a directory into itself");
+    }
+    if (findChild(newParent, nameIds.getInt(offset(id))) != NONE)
+      throw new IllegalArgumentException("Element already exists");
+    detach(id);
+    attach(id, newParent);
+  }
+
+  /**
+   * Renames the element with the specified name in the specified directory.
+   *
+   * @param parent  the directory containing the element
+   * @param name    the name of the element
+   * @param newName the new name
+   * @throws IllegalArgumentException if the element is not found or the new
+   *                                  name is already taken
+   */
+  public void rename(final int parent, final String name,
+                     final String newName) {
+    final int id = find(parent, name);
+    if (id == NONE)
+      throw new IllegalArgumentException("Element not found");
+    final int newNameId = intern(newName);
+    final int existing = findChild(parent, newNameId);
+    if (existing == id)
+      return;
+    if (existing != NONE)
+      throw new IllegalArgumentException("Element already exists");
+    removeChild(id);
+    unlinkSameName(id);
+    nameIds.putInt(offset(id), newNameId);
+    insertChild(id);
+    linkSameName(id);
+  }
+
+  /**
+   * Finds an element with the specified name anywhere in the tree. When
+   * several elements share the name, any one of them may be returned.
+   *
+   * @param name the name to search for
+   * @return the element, or NONE if not found
+   */
+  public int recFind(final String name) {
+    final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    final int nameId = findName(bytes, hash(bytes));
+    return nameId == NONE ? NONE : nameHeads.getInt(offset(nameId));
+  }
+
+  /**
+   * Finds all the elements with the specified name.
+   *
+   * @param name the name to search for
+   * @return the elements, in no particular order
+   */
+  public int[] findAll(final String name) {
+    int[] found = new int[4];
+    int count = 0;
+    for (int e = recFind(name); e != NONE;
+         e = nextSameNames.getInt(offset(e))) {
+      if (count == found.length)
+        found = Arrays.copyOf(found, count * 2);
+      found[count++] = e;
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /**
+   * Prints the whole tree to the standard output.
+   */
+  public void printTree() {
+    try {
+      renderTree(ROOT, System.out);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Renders the specified element and its descendants, one per line, each
+   * indented by its level, in the format of {@link TreeRenderer} with the
+   * totals turned off (see {@link TreeRenderer#setTotals(boolean)}). The file
+   * system keeps no subtree totals to show.
+   *
+   * @param id  the root of the tree
+   * @param out the output
+   * @return the number of rendered elements
+   * @throws IOException if the output fails
+   */
+  public long renderTree(final int id, final Appendable out)
+      throws IOException {
+    check(id);
+    final StringBuilder buffer = new StringBuilder(RENDER_BUFFER_SIZE + 256);
+    final String newline = System.lineSeparator();
+    long nodes = 0;
+    int level = 0;
+    int e = id;
+    for (;;) {
+      for (int i = 0; i < level; i++)
+        buffer.append("  ");
+      if (kinds.getByte(e) == DIRECTORY)
+        buffer.append("* ").append(getName(e)).append('/');
+      else
+        buffer.append(getName(e));
+      buffer.append(newline);
+      nodes++;
+      if (buffer.length() >= RENDER_BUFFER_SIZE) {
+        out.append(buffer);
+        buffer.setLength(0);
+      }
+      // Go down to the first child, or else to the next sibling of the
+      // closest element that has one.
+      final int child = kinds.getByte(e) == DIRECTORY
+                            ? firstChildren.getInt(offset(e))
+                            : NONE;
+      if (child != NONE) {
+        e = child;
+        level++;
+        continue;
+      }
+      while (e != id && nextSiblings.getInt(offset(e)) == NONE) {
+        e = parents.getInt(offset(e));
+        level--;
+      }
+      if (e == id)
+        break;
+      e = nextSiblings.getInt(offset(e));
+    }
+    out.append(buffer);
+    if (out instanceof Flushable)
+      ((Flushable)out).flush();
+    return nodes;
+  }
+
+  /**
+   * Creates a new element.
+   *
+   * @param parent the directory to create the element in
+   * @param name   the name of the element
+   * @param kind   the kind of the element
+   * @return the new element, or NONE if the name is already taken
+   */
+  private int create(final int parent, final String name, final byte kind) {
+    checkDirectory(parent);
+    final int nameId = intern(name);
+    if (findChild(parent, nameId) != NONE)
+      return NONE;
+    final int id = allocate(kind, nameId);
+    attach(id, parent);
+    linkSameName(id);
+    return id;
+  }
+
+  /**
+   * Hands out a free id and initializes its columns.
+   *
+   * @param kind   the kind of the element
+   * @param nameId the name of the element
+   * @return the id
+   */
+  private int allocate(final byte kind, final int nameId) {
+    final int id;
+    if (freeHead != NONE) {
+      id = freeHead;
+      freeHead = nextSiblings.getInt(offset(freeHead));
+    } else {
+      if (idCount == Integer.MAX_VALUE)
+        throw new IllegalStateException("Too many elements");
+      id = idCount++;
+      final long ints = offset(idCount);
+      parents.ensure(ints);
+      firstChildren.ensure(ints);
+      lastChildren.ensure(ints);
+      nextSiblings.ensure(ints);
+      prevSiblings.ensure(ints);
+      nameIds.ensure(ints);
+      nextSameNames.ensure(ints);
+      prevSameNames.ensure(ints);
+      times.ensure(ints * 2);
+      kinds.ensure(idCount);
+    }
+    final long off = offset(id);
+    kinds.putByte(id, kind);
+    nameIds.putInt(off, nameId);
+    firstChildren.putInt(off, NONE);
+    lastChildren.putInt(off, NONE);
+    times.putLong(off * 2, System.currentTimeMillis());
+    size++;
+    return id;
+  }
+
+  /**
+   * Returns an id to the free list.
+   *
+   * @param id the id
+   */
+  private void free(final int id) {
+    kinds.putByte(id, FREE);
+    nextSiblings.putInt(offset(id), freeHead);
+    freeHead = id;
+    size--;
+  }
+
+  /**
+   * Appends an element to the children of a directory.
+   *
+   * @param id     the element
+   * @param parent the directory
+   */
+  private void attach(final int id, final int parent) {
+    final long off = offset(id);
+    final int last = lastChildren.getInt(offset(parent));
+    parents.putInt(off, parent);
+    prevSiblings.putInt(off, last);
+    nextSiblings.putInt(off, NONE);
+    if (last == NONE)
+      firstChildren.putInt(offset(parent), id);
+    else
+      nextSiblings.putInt(offset(last), id);
+    lastChildren.putInt(offset(parent), id);
+    insertChild(id);
+  }
+
+  /**
+   * Removes an element from the children of its parent.
+   *
+   * @param id the element
+   */
+  private void detach(final int id) {
+    final long off = offset(id);
+    final int parent = parents.getInt(off);
+    final int prev = prevSiblings.getInt(off);
+    final int next = nextSiblings.getInt(off);
+    if (prev == NONE)
+      firstChildren.putInt(offset(parent), next);
+    else
+      nextSiblings.putInt(offset(prev), next);
+    if (next == NONE)
+      lastChildren.putInt(offset(parent), prev);
+    else
+      prevSiblings.putInt(offset(next), prev);
+    removeChild(id);
+  }
+
+  /**
+   * Adds an element to the list of elements with its name.
+   *
+   * @param id the element
+   */
+  private void linkSameName(final int id) {
+    final long nameOff = offset(nameIds.getInt(offset(id)));
+    final int head = nameHeads.getInt(nameOff);
+    nextSameNames.putInt(offset(id), head);
+    prevSameNames.putInt(offset(id), NONE);
+    if (head != NONE)
+      prevSameNames.putInt(offset(head), id);
+    nameHeads.putInt(nameOff, id);
+  }
+
+  /**
+   * Removes an element from the list of elements with its name.
+   *
+   * @param id the element
+   */
+  private void unlinkSameName(final int id) {
+    final int prev = prevSameNames.getInt(offset(id));
+    final int next = nextSameNames.getInt(offset(id));
+    if (prev == NONE)
+      nameHeads.putInt(offset(nameIds.getInt(offset(id))), next);
+    else
+      nextSameNames.putInt(offset(prev), next);
+    if (next != NONE)
+      prevSameNames.putInt(offset(next), prev);
+  }
+
+  /**
+   * Finds the child of a directory with the specified name id.
+   *
+   * @param parent the directory
+   * @param nameId the name id
+   * @return the child, or NONE if not found
+   */
+  private int findChild(final int parent, final int nameId) {
+    for (int i = childHash(parent, nameId) & childMask;;
+         i = (i + 1) & childMask) {
+      final int slot = childTable.getInt(offset(i));
+      if (slot == 0)
+        return NONE;
+      final int e = slot - 1;
+      if (parents.getInt(offset(e)) == parent &&
+          nameIds.getInt(offset(e)) == nameId)
+        return e;
+    }
+  }
+
+  /**
+   * Adds an element to the child table under its parent and name.
+   *
+   * @param id the element
+   */
+  private void insertChild(final int id) {
+    if ((childCount + 1) * 2 > childMask + 1L)
+      resizeChildTable();
+    insertSlot(childTable, childMask, id);
+    childCount++;
+  }
+
+  /**
+   * Stores an element in the first free slot of its probe sequence.
+   *
+   * @param table the child table
+   * @param mask  the number of slots of the table minus one
+   * @param id    the element
+   */
+  private void insertSlot(final OffHeapArray table, final int mask,
+                          final int id) {
+    int i = childHash(parents.getInt(offset(id)), nameIds.getInt(offset(id))) &
+            mask;
+    while (table.getInt(offset(i)) != 0)
+      i = (i + 1) & mask;
+    table.putInt(offset(i), id + 1);
+  }
+
+  /**
+   * Removes an element from the child table. The parent and name of the
+   * element must be the ones it was added under.
+   *
+   * @param id the element
+   */
+  private void removeChild(final int id) {
+    int i = childHash(parents.getInt(offset(id)), nameIds.getInt(offset(id))) &
+            childMask;
+    while (childTable.getInt(offset(i)) != id + 1)
+      i = (i + 1) & childMask;
+    // Shift the following entries of the cluster back so that probing never
+    // stops early at the freed slot.
+    for (int j = (i + 1) & childMask;; j = (j + 1) & childMask) {
+      final int slot = childTable.getInt(offset(j));
+      if (slot == 0)
+        break;
+      final int e = slot - 1;
+      final int home =
+          childHash(parents.getInt(offset(e)), nameIds.getInt(offset(e))) &
+          childMask;
+      if (((j - home) & childMask) >= ((j - i) & childMask)) {
+        childTable.putInt(offset(i), slot);
+        i = j;
+      }
+    }
+    childTable.putInt(offset(i), 0);
+    childCount--;
+  }
+
+  /**
+   * Doubles the child table and rehashes its entries.
+   */
+  private void resizeChildTable() {
+    final int mask = childMask * 2 + 1;
+    final OffHeapArray table = new OffHeapArray(0);
+    table.ensure(offset(mask + 1L));
+    for (int i = 0; i <= childMask; i++) {
+      final int slot = childTable.getInt(offset(i));
+      if (slot != 0)
+        insertSlot(table, mask, slot - 1);
+    }
+    childTable = table;
+    childMask = mask;
+  }
+
+  /**
+   * Returns the id of the specified name, adding the name if it is new.
+   *
+   * @param name the name
+   * @return the name id
+   * @throws IllegalArgumentException if the name is too long
+   */
+  private int intern(final String name) {
+    final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    final int hash = hash(bytes);
+    final int found = findName(bytes, hash);
+    if (found != NONE)
+      return found;
+    if (bytes.length > OffHeapArray.CHUNK_SIZE)
+      throw new IllegalArgumentException("Name too long");
+    // Names never span two chunks of the arena.
+    final long chunkEnd = (nameEnd | (OffHeapArray.CHUNK_SIZE - 1)) + 1;
+    if (nameEnd + bytes.length > chunkEnd)
+      nameEnd = chunkEnd;
+    nameBytes.ensure(nameEnd + bytes.length);
+    nameBytes.putBytes(nameEnd, bytes, bytes.length);
+
+    final int id = nameCount++;
+    nameOffsets.ensure(offset(nameCount) * 2);
+    nameLengths.ensure(offset(nameCount));
+    nameHashes.ensure(offset(nameCount));
+    nameHeads.ensure(offset(nameCount));
+    nameOffsets.putLong(offset(id) * 2, nameEnd);
+    nameLengths.putInt(offset(id), bytes.length);
+    nameHashes.putInt(offset(id), hash);
+    nameHeads.putInt(offset(id), NONE);
+    nameEnd += bytes.length;
+
+    if (nameCount * 2L > nameMask + 1L) {
+      final int mask = nameMask * 2 + 1;
+      final OffHeapArray table = new OffHeapArray(0);
+      table.ensure(offset(mask + 1L));
+      for (int n = 0; n < id; n++)
+        insertName(table, mask, n);
+      nameTable = table;
+      nameMask = mask;
+    }
+    insertName(nameTable, nameMask, id);
+    return id;
+  }
+
+  /**
+   * Stores a name id in the first free slot of its probe sequence.
+   *
+   * @param table  the name table
+   * @param mask   the number of slots of the table minus one
+   * @param nameId the name id
+   */
+  private void insertName(final OffHeapArray table, final int mask,
+                          final int nameId) {
+    int i = spread(nameHashes.getInt(offset(nameId))) & mask;
+    while (table.getInt(offset(i)) != 0)
+      i = (i + 1) & mask;
+    table.putInt(offset(i), nameId + 1);
+  }
+
+  /**
+   * Finds the id of the name with the specified bytes.
+   *
+   * @param bytes the UTF-8 bytes of the name
+   * @param hash  the hash of the bytes
+   * @return the name id, or NONE if the name is unknown
+   */
+  private int findName(final byte[] bytes, final int hash) {
+    for (int i = spread(hash) & nameMask;; i = (i + 1) & nameMask) {
+      final int slot = nameTable.getInt(offset(i));
+      if (slot == 0)
+        return NONE;
+      final int n = slot - 1;
+      if (nameHashes.getInt(offset(n)) == hash &&
+          nameLengths.getInt(offset(n)) == bytes.length &&
+          nameEquals(nameOffsets.getLong(offset(n) * 2), bytes))
+        return n;
+    }
+  }
+
+  /**
+   * Compares a name in the arena with the specified bytes.
+   *
+   * @param off   the offset of the name in the arena
+   * @param bytes the bytes, as long as the name
+   * @return true if they are equal
+   */
+  private boolean nameEquals(final long off, final byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (nameBytes.getByte(off + i) != bytes[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Checks that the specified id is an element of the tree.
+   *
+   * @param id the id
+   * @throws IllegalArgumentException if it is not
+   */
+  private void check(final int id) {
+    if (id < 0 || id >= idCount || kinds.getByte(id) == FREE)
+      throw new IllegalArgumentException("Element not found");
+  }
+
+  /**
+   * Checks that the specified id is a directory of the tree.
+   *
+   * @param id the id
+   * @throws IllegalArgumentException if it is not
+   */
+  private void checkDirectory(final int id) {
+    check(id);
+    if (kinds.getByte(id) != DIRECTORY)
+      throw new IllegalArgumentException("Directory not found");
+  }
+
+  /**
+   * Returns the offset of an int in a column.
+   *
+   * @param index the index of the int
+   * @return the offset
+   */
+  private static long offset(final long index) { return index * 4; }
+
+  /**
+   * Returns the hash of a parent and a name id.
+   *
+   * @param parent the parent
+   * @param nameId the name id
+   * @return the hash
+   */
+  private static int childHash(final int parent, final int nameId) {
+    return spread(parent * 0x9E3779B9 + nameId);
+  }
+
+  /**
+   * Returns the hash of the bytes of a name.
+   *
+   * @param bytes the bytes
+   * @return the hash
+   */
+  private static int hash(final byte[] bytes) {
+    int h = 0;
+    for (final byte b : bytes)
+      h = 31 * h + b;
+    return h;
+  }
+
+  /**
+   * Spreads the higher bits of a hash code to the lower ones.
+   *
+   * @param h the hash code
+   * @return the spread hash code
+   */
+  private static int spread(final int h) {
+    final int x = h * 0x85EBCA6B;
+    return x ^ (x >>> 16);
+  }
+}
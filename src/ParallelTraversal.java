@@ -0,0 +1,394 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Walks directory subtrees on a {@link ForkJoinPool}. Each subdirectory is
+ * either walked inline or forked as its own task; it is forked only if its
+ * subtree is big enough to be worth a task and the pool has few queued tasks,
+ * so small subtrees do not pay for task overhead and big ones spread over all
+ * the workers.
+ *
+ * <p>Subdirectories walked inline are kept on an explicit stack rather than
+ * the Java stack, and nothing is forked below a fixed level, so that tasks
+ * joined inline cannot nest without bound either. A deep chain of directories
+ * therefore cannot overflow the stack.
+ */
+public class ParallelTraversal {
+  /**
+   * The number of queued tasks above which subtrees are walked inline.
+   */
+  private static final int SURPLUS_LIMIT = 3;
+  /**
+   * The number of elements below which a subtree is always walked inline.
+   */
+  private static final long FORK_THRESHOLD = 256;
+  /**
+   * The level from which subdirectories are always walked inline.
+   */
+  private static final int MAX_FORK_LEVEL = 64;
+
+  /**
+   * The pool the walks run on.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Constructs a new ParallelTraversal object on the common pool.
+   */
+  public ParallelTraversal() { this(ForkJoinPool.commonPool()); }
+
+  /**
+   * Constructs a new ParallelTraversal object on the specified pool.
+   *
+   * @param pool the pool the walks run on
+   */
+  public ParallelTraversal(final ForkJoinPool pool) { this.pool = pool; }
+
+  /**
+   * Finds an element with the specified name in the subtree of the specified
+   * directory, including the directory itself. The walk stops as soon as any
+   * worker finds a match, so the element returned is not necessarily the first
+   * one in tree order.
+   *
+   * @param root the root of the subtree
+   * @param name the name to search for
+   * @return the found element, or null if not found
+   */
+  public FileSystemElement findFirst(final Directory root, final String name) {
+    final AtomicReference<FileSystemElement> found = new AtomicReference<>();
+    walk(root, new Visitor<Void>() {
+      @Override
+      Void visit(final FileSystemElement e, final int level) {
+        if (e.getName().equals(name))
+          found.compareAndSet(null, e);
+        return null;
+      }
+
+      @Override
+      boolean done() {
+        return found.get() != null;
+      }
+    });
+    return found.get();
+  }
+
+  /**
+   * Finds all the elements with the specified name in the subtree of the
+   * specified directory, including the directory itself.
+   *
+   * @param root the root of the subtree
+   * @param name the name to search for
+   * @return the found elements, in no particular order
+   */
+  public List<FileSystemElement> findAll(final Directory root,
+                                         final String name) {
+    final List<FileSystemElement> found =
+        walk(root, new Visitor<List<FileSystemElement>>() {
+          @Override
+          List<FileSystemElement> visit(final FileSystemElement e,
+                                        final int level) {
+            if (!e.getName().equals(name))
+              return null;
+            final List<FileSystemElement> list = new ArrayList<>();
+            list.add(e);
+            return list;
+          }
+
+          @Override
+          List<FileSystemElement> combine(final List<FileSystemElement> a,
+                                          final List<FileSystemElement> b) {
+            a.addAll(b);
+            return a;
+          }
+        });
+    return found == null ? new ArrayList<>() : found;
+  }
+
+  /**
+   * Counts the files and directories below the specified directory and
+   * measures its depth by walking the subtree. Directories keep the same
+   * figures up to date themselves, see {@link Directory#getStats()}; this
+   * recomputes them from the tree.
+   *
+   * @param root the root of the subtree
+   * @return the figures of the subtree
+   */
+  public SubtreeStats aggregate(final Directory root) {
+    return walk(root, new Visitor<SubtreeStats>() {
+      @Override
+      SubtreeStats visit(final FileSystemElement e, final int level) {
+        if (e == root)
+          return new SubtreeStats(0, 0, 0);
+        return e instanceof Directory ? new SubtreeStats(0, 1, level)
+                                      : new SubtreeStats(1, 0, level);
+      }
+
+      @Override
+      SubtreeStats combine(final SubtreeStats a, final SubtreeStats b) {
+        return new SubtreeStats(a.getFiles() + b.getFiles(),
+                                a.getDirectories() + b.getDirectories(),
+                                Math.max(a.getDepth(), b.getDepth()));
+      }
+    });
+  }
+
+  /**
+   * Deletes the specified directory and everything below it. Subdirectories
+   * are emptied in parallel before the directory is detached from its parent.
+   *
+   * @param directory the directory to delete
+   * @param onRemoved called once for every removed element, possibly from
+   *                  several threads at once
+   * @return the number of removed elements, including the directory
+   */
+  public long delete(final Directory directory,
+                     final Consumer<FileSystemElement> onRemoved) {
+    final long removed = walk(directory, new Visitor<Long>() {
+      @Override
+      Long visit(final FileSystemElement e, final int level) {
+        onRemoved.accept(e);
+        return 1L;
+      }
+
+      @Override
+      Long combine(final Long a, final Long b) {
+        return a + b;
+      }
+
+      @Override
+      void leave(final Directory d) {
+        d.detachChildren();
+      }
+    });
+    directory.delete();
+    return removed;
+  }
+
+  /**
+   * Walks the subtree of the specified directory with the specified visitor.
+   *
+   * @param <R>     the type of the result
+   * @param root    the root of the subtree
+   * @param visitor the visitor
+   * @return the combined result of the subtree
+   */
+  private <R> R walk(final Directory root, final Visitor<R> visitor) {
+    final long start = Metrics.start();
+    final R result = pool.invoke(new Walk<>(visitor, root, 0));
+    Metrics.stop(Metrics.Op.WALK, start);
+    return result;
+  }
+
+  /**
+   * Says what a walk does with each element and how it combines the results.
+   *
+   * @param <R> the type of the result
+   */
+  private abstract static class Visitor<R> {
+    /**
+     * Visits one element.
+     *
+     * @param e     the element
+     * @param level the level of the element below the root of the walk
+     * @return the result for the element, or null if there is none
+     */
+    abstract R visit(FileSystemElement e, int level);
+
+    /**
+     * Combines two non null results. The default keeps the first one.
+     *
+     * @param a the first result
+     * @param b the second result
+     * @return the combined result
+     */
+    R combine(final R a, final R b) { return a; }
+
+    /**
+     * Called after the children of a directory have been walked.
+     *
+     * @param d the directory
+     */
+    void leave(final Directory d) {}
+
+    /**
+     * Returns whether the walk can stop early.
+     *
+     * @return true if the rest of the tree need not be visited
+     */
+    boolean done() { return false; }
+  }
+
+  /**
+   * A task that walks the subtree of one directory.
+   *
+   * @param <R> the type of the result
+   */
+  private static final class Walk<R> extends RecursiveTask<R> {
+    /**
+     * The serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The visitor of the walk.
+     */
+    private final transient Visitor<R> visitor;
+    /**
+     * The directory to walk.
+     */
+    private final transient Directory directory;
+    /**
+     * The level of the directory below the root of the whole walk.
+     */
+    private final int level;
+    /**
+     * The number of elements this task has visited, when metrics are enabled.
+     */
+    private long visited;
+
+    /**
+     * Constructs a new Walk object.
+     *
+     * @param visitor   the visitor of the walk
+     * @param directory the directory to walk
+     * @param level     the level of the directory below the root of the walk
+     */
+    Walk(final Visitor<R> visitor, final Directory directory, final int level) {
+      this.visitor = visitor;
+      this.directory = directory;
+      this.level = level;
+    }
+
+    @Override
+    protected R compute() {
+      final R result = walk(directory, level);
+      Metrics.visited(Metrics.Op.WALK, visited);
+      return result;
+    }
+
+    /**
+     * Walks the specified directory, forking subtasks for subdirectories while
+     * the pool is hungry and walking them inline otherwise.
+     *
+     * @param top   the directory
+     * @param level the level of the directory
+     * @return the combined result of the subtree
+     */
+    private R walk(final Directory top, final int level) {
+      final Deque<Frame<R>> stack = new ArrayDeque<>();
+      stack.push(enter(top, level));
+      while (true) {
+        final Frame<R> f = stack.peek();
+        if (f.children.hasNext() && !visitor.done()) {
+          final FileSystemElement child = f.children.next();
+          if (!(child instanceof Directory)) {
+            if (Metrics.ENABLED)
+              visited++;
+            f.result = merge(f.result, visitor.visit(child, f.depth + 1));
+          } else if (f.depth < MAX_FORK_LEVEL &&
+                     ((Directory)child).getSubtreeSize() >= FORK_THRESHOLD &&
+                     getSurplusQueuedTaskCount() < SURPLUS_LIMIT) {
+            final Walk<R> task =
+                new Walk<>(visitor, (Directory)child, f.depth + 1);
+            task.fork();
+            if (f.forked == null)
+              f.forked = new ArrayList<>();
+            f.forked.add(task);
+          } else {
+            stack.push(enter((Directory)child, f.depth + 1));
+          }
+          continue;
+        }
+        if (f.forked != null) {
+          for (final Walk<R> task : f.forked)
+            f.result = merge(f.result, task.join());
+        }
+        visitor.leave(f.directory);
+        stack.pop();
+        if (stack.isEmpty())
+          return f.result;
+        final Frame<R> parent = stack.peek();
+        parent.result = merge(parent.result, f.result);
+      }
+    }
+
+    /**
+     * Visits a directory and starts walking its children.
+     *
+     * @param d     the directory
+     * @param depth the level of the directory
+     * @return the frame of the directory
+     */
+    private Frame<R> enter(final Directory d, final int depth) {
+      if (Metrics.ENABLED)
+        visited++;
+      return new Frame<>(d, depth, visitor.visit(d, depth));
+    }
+
+    /**
+     * Combines two results, either of which may be null.
+     *
+     * @param a the first result
+     * @param b the second result
+     * @return the combined result
+     */
+    private R merge(final R a, final R b) {
+      if (a == null)
+        return b;
+      if (b == null)
+        return a;
+      return visitor.combine(a, b);
+    }
+  }
+
+  /**
+   * A directory being walked inline and what is left to do for it.
+   *
+   * @param <R> the type of the result
+   */
+  private static final class Frame<R> {
+    /**
+     * The directory.
+     */
+    final Directory directory;
+    /**
+     * The level of the directory.
+     */
+    final int depth;
+    /**
+     * The children not visited yet.
+     */
+    final Iterator<FileSystemElement> children;
+    /**
+     * The combined result so far.
+     */
+    R result;
+    /**
+     * The subtasks forked for subdirectories, or null if there is none.
+     */
+    List<Walk<R>> forked;
+
+    /**
+     * Constructs a new Frame object.
+     *
+     * @param directory the directory
+     * @param depth     the level of the directory
+     * @param result    the result of visiting the directory
+     */
+    Frame(final Directory directory, final int depth, final R result) {
+      this.directory = directory;
+      this.depth = depth;
+      this.children = directory.getChildren().iterator();
+      this.result = result;
+    }
+  }
+}
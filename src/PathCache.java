@@ -0,0 +1,237 @@
+package src;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of resolved directory paths. A hit costs one hash lookup and
+ * one reference comparison, however deep the directory is.
+ *
+ * <p>Entries are never invalidated eagerly. Each entry remembers the path
+ * string the directory had cached when the entry was made; a rename, move or
+ * delete of the directory or of any of its ancestors discards that string,
+ * and the directory computes a new one the next time its path is asked for.
+ * An entry whose directory no longer holds the very same string is stale and
+ * is dropped when it is found.
+ *
+ * <p>Eviction approximates least recently used with the clock algorithm: a
+ * hit only sets a flag on the entry, and when the cache is over capacity a
+ * hand sweeps the entries, clearing set flags and evicting the first entry
+ * found unflagged. Lookups never lock; only one thread evicts at a time.
+ */
+public final class PathCache {
+  /**
+   * The default number of paths a cache holds.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The number of paths the cache holds at most.
+   */
+  private final int capacity;
+  /**
+   * The entries by path.
+   */
+  private final ConcurrentHashMap<String, Entry> entries;
+  /**
+   * The number of lookups answered from the cache.
+   */
+  private final LongAdder hits = new LongAdder();
+  /**
+   * The number of lookups not answered from the cache.
+   */
+  private final LongAdder misses = new LongAdder();
+  /**
+   * The number of entries evicted to make room.
+   */
+  private final LongAdder evictions = new LongAdder();
+  /**
+   * Held by the thread sweeping the entries.
+   */
+  private final ReentrantLock sweeping = new ReentrantLock();
+  /**
+   * The position of the clock hand, or null to start a new sweep.
+   */
+  private Iterator<Map.Entry<String, Entry>> hand;
+
+  /**
+   * Constructs a new PathCache object.
+   *
+   * @param capacity the number of paths the cache holds at most
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public PathCache(final int capacity) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("Capacity must be positive");
+    this.capacity = capacity;
+    this.entries = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+  }
+
+  /**
+   * Returns the directory cached for the specified path, if it is still
+   * there.
+   *
+   * @param path the path
+   * @return the directory, or null on a miss
+   */
+  public Directory get(final String path) {
+    final Entry e = entries.get(path);
+    if (e != null) {
+      if (e.directory.cachedPath() == e.path) {
+        if (!e.referenced)
+          e.referenced = true;
+        hits.increment();
+        return e.directory;
+      }
+      entries.remove(path, e);
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Caches the directory a path resolved to. Only the canonical path of the
+   * directory is cached, so a path resolved just before the directory moved
+   * is not cached under its old path.
+   *
+   * @param path      the path
+   * @param directory the directory the path resolved to
+   */
+  public void put(final String path, final Directory directory) {
+    final String current = directory.getPath();
+    if (!current.equals(path))
+      return;
+    entries.put(path, new Entry(directory, current));
+    if (entries.size() > capacity)
+      evict();
+  }
+
+  /**
+   * Empties the cache. The statistics are kept.
+   */
+  public void clear() { entries.clear(); }
+
+  /**
+   * Returns the number of paths the cache holds at most.
+   *
+   * @return the capacity
+   */
+  public int getCapacity() { return capacity; }
+
+  /**
+   * Returns the number of paths in the cache, including stale ones not yet
+   * found.
+   *
+   * @return the number of entries
+   */
+  public int size() { return entries.size(); }
+
+  /**
+   * Returns the number of lookups answered from the cache.
+   *
+   * @return the number of hits
+   */
+  public long getHits() { return hits.sum(); }
+
+  /**
+   * Returns the number of lookups not answered from the cache, stale entries
+   * included.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() { return misses.sum(); }
+
+  /**
+   * Returns the number of entries evicted to make room.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictions() { return evictions.sum(); }
+
+  /**
+   * Returns the share of lookups answered from the cache.
+   *
+   * @return the hit rate, between 0 and 1, or 0 if there was no lookup
+   */
+  public double getHitRate() {
+    final long h = hits.sum();
+    final long total = h + misses.sum();
+    return total == 0 ? 0 : (double)h / total;
+  }
+
+  /**
+   * Resets the statistics.
+   */
+  public void resetStats() {
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("path cache: %d/%d entries, %d hits, %d misses, "
+                             + "%d evictions, %.1f%% hit rate%n",
+                         size(), capacity, getHits(), getMisses(),
+                         getEvictions(), 100 * getHitRate());
+  }
+
+  /**
+   * Moves the clock hand until the cache is back within capacity. Does
+   * nothing if another thread is already sweeping.
+   */
+  private void evict() {
+    if (!sweeping.tryLock())
+      return;
+    try {
+      while (entries.size() > capacity) {
+        if (hand == null || !hand.hasNext()) {
+          hand = entries.entrySet().iterator();
+          if (!hand.hasNext())
+            break;
+        }
+        final Entry e = hand.next().getValue();
+        if (e.referenced) {
+          e.referenced = false;
+        } else {
+          hand.remove();
+          evictions.increment();
+        }
+      }
+    } finally {
+      sweeping.unlock();
+    }
+  }
+
+  /**
+   * A cached directory and the path string it had when it was cached.
+   */
+  private static final class Entry {
+    /**
+     * The directory.
+     */
+    final Directory directory;
+    /**
+     * The path string the directory had cached.
+     */
+    final String path;
+    /**
+     * Whether the entry was hit since the clock hand last passed it.
+     */
+    volatile boolean referenced;
+
+    /**
+     * Constructs a new Entry object.
+     *
+     * @param directory the directory
+     * @param path      the path string the directory had cached
+     */
+    Entry(final Directory directory, final String path) {
+      this.directory = directory;
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,432 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A compiled path glob such as {@code src/*.java} or
+ * {@code **}{@code /build/*}. Components are separated by slashes; in a
+ * component, {@code *} matches any run of characters, {@code ?} any one
+ * character and {@code [...]} one character of a class ({@code [!...]} negates
+ * it). A component that is just {@code **} matches any number of directories,
+ * including none; as the last component it matches any element below, but not
+ * the directory it follows.
+ *
+ * <p>Matches are found by a lazy depth-first walk that carries the set of
+ * glob positions each directory can still reach. Subtrees no position can
+ * continue into are skipped, and where every position is a literal name the
+ * children are looked up by name instead of being listed.
+ */
+public final class PathGlob {
+  /**
+   * The largest number of components of a glob.
+   */
+  private static final int MAX_COMPONENTS = 63;
+
+  /**
+   * The source of the glob.
+   */
+  private final String glob;
+  /**
+   * Whether the glob starts with a slash.
+   */
+  private final boolean absolute;
+  /**
+   * The components.
+   */
+  private final String[] parts;
+  /**
+   * The number of components.
+   */
+  private final int length;
+  /**
+   * The name each component matches, or null if it has wildcards.
+   */
+  private final String[] literals;
+  /**
+   * The pattern of each component with wildcards, or null.
+   */
+  private final Pattern[] patterns;
+  /**
+   * The bits of the {@code **} components.
+   */
+  private final long anyDepth;
+  /**
+   * The bits of the {@code **} components that may match no directory, that
+   * is all of them but a last one.
+   */
+  private final long skippable;
+
+  /**
+   * Constructs a new PathGlob object.
+   *
+   * @param glob the source of the glob
+   * @throws IllegalArgumentException if the glob is empty or has too many
+   *                                  components
+   */
+  private PathGlob(final String glob) {
+    this.glob = glob;
+    this.absolute = glob.startsWith("/");
+    final List<String> list = new ArrayList<>();
+    for (final String part : glob.split("/")) {
+      if (!part.isEmpty())
+        list.add(part);
+    }
+    if (list.isEmpty())
+      throw new IllegalArgumentException("Empty pattern");
+    if (list.size() > MAX_COMPONENTS)
+      throw new IllegalArgumentException("Pattern has too many components");
+    parts = list.toArray(new String[0]);
+    length = parts.length;
+    literals = new String[length];
+    patterns = new Pattern[length];
+    long any = 0;
+    for (int i = 0; i < length; i++) {
+      final String part = parts[i];
+      if (part.equals("**"))
+        any |= 1L << i;
+      else if (isLiteral(part))
+        literals[i] = part;
+      else
+        patterns[i] = toPattern(part);
+    }
+    anyDepth = any;
+    skippable = any & ~(1L << (length - 1));
+  }
+
+  /**
+   * Compiles the specified glob.
+   *
+   * @param glob the glob
+   * @return the compiled glob
+   * @throws IllegalArgumentException if the glob is empty or has too many
+   *                                  components
+   */
+  public static PathGlob compile(final String glob) {
+    return new PathGlob(glob);
+  }
+
+  /**
+   * Returns whether the glob starts with a slash, so that it is meant to be
+   * matched from the root rather than from a current directory.
+   *
+   * @return true if the glob is absolute
+   */
+  public boolean isAbsolute() { return absolute; }
+
+  /**
+   * Returns whether the specified name matches a single glob component.
+   *
+   * @param component the glob component, without slashes
+   * @param name      the name
+   * @return true if the name matches
+   */
+  public static boolean matchesName(final String component,
+                                    final String name) {
+    return isLiteral(component) ? component.equals(name)
+                                : toPattern(component).matcher(name).matches();
+  }
+
+  /**
+   * Returns the characters of a glob component before its first wildcard.
+   *
+   * @param component the glob component
+   * @return the literal prefix, possibly empty
+   */
+  public static String literalPrefix(final String component) {
+    for (int i = 0; i < component.length(); i++) {
+      if ("*?[".indexOf(component.charAt(i)) >= 0)
+        return component.substring(0, i);
+    }
+    return component;
+  }
+
+  /**
+   * Returns the descendants of the specified directory whose path relative to
+   * it matches the glob, lazily and in depth-first order.
+   *
+   * @param base the directory to match from
+   * @return the matching elements
+   */
+  public Stream<FileSystemElement> find(final Directory base) {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(
+            iterator(base), Spliterator.ORDERED | Spliterator.NONNULL |
+                                Spliterator.DISTINCT),
+        false);
+  }
+
+  /**
+   * Returns an iterator over the descendants of the specified directory whose
+   * path relative to it matches the glob, in depth-first order.
+   *
+   * @param base the directory to match from
+   * @return the iterator
+   */
+  public Iterator<FileSystemElement> iterator(final Directory base) {
+    return new Walk(base);
+  }
+
+  /**
+   * Returns the name a glob starting with {@code **} must reach next, if that
+   * is the only {@code **} component and it is followed by a literal.
+   * Matches of such a glob can be found from the elements with that name.
+   *
+   * @return the literal, or null if the glob does not have that shape
+   */
+  String anchorName() {
+    return length >= 2 && anyDepth == 1L && literals[1] != null ? literals[1]
+                                                                : null;
+  }
+
+  /**
+   * Returns the glob made of the components after the anchor name.
+   *
+   * @return the rest of the glob, or null if the anchor is the last component
+   */
+  PathGlob afterAnchor() {
+    if (length == 2)
+      return null;
+    return new PathGlob(
+        String.join("/", Arrays.copyOfRange(parts, 2, length)));
+  }
+
+  @Override
+  public String toString() {
+    return glob;
+  }
+
+  /**
+   * Adds to a set of positions the ones reachable from it by letting a
+   * {@code **} match no directory.
+   *
+   * @param states the set of positions, one bit each
+   * @return the closed set
+   */
+  private long closure(final long states) {
+    long closed = states;
+    long any;
+    while ((any = closed & skippable & ~(closed >>> 1)) != 0)
+      closed |= any << 1;
+    return closed;
+  }
+
+  /**
+   * Returns whether a glob component is a plain name.
+   *
+   * @param component the component
+   * @return true if it has no wildcard
+   */
+  private static boolean isLiteral(final String component) {
+    return literalPrefix(component).length() == component.length();
+  }
+
+  /**
+   * Translates a glob component into a regular expression.
+   *
+   * @param component the component
+   * @return the pattern
+   */
+  private static Pattern toPattern(final String component) {
+    final StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < component.length(); i++) {
+      final char c = component.charAt(i);
+      switch (c) {
+      case '*':
+        regex.append(".*");
+        break;
+      case '?':
+        regex.append('.');
+        break;
+      case '[':
+        final int end = component.indexOf(']', i + 2);
+        if (end < 0) {
+          regex.append("\\[");
+          break;
+        }
+        regex.append('[');
+        int from = i + 1;
+        if (component.charAt(from) == '!') {
+          regex.append('^');
+          from++;
+        }
+        for (int j = from; j < end; j++) {
+          final char k = component.charAt(j);
+          if (k == '\\' || k == '[' || k == '&' || k == '^')
+            regex.append('\\');
+          regex.append(k);
+        }
+        regex.append(']');
+        i = end;
+        break;
+      default:
+        if ("\\.^$|+(){}".indexOf(c) >= 0)
+          regex.append('\\');
+        regex.append(c);
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * A lazy depth-first walk that yields the matches of the glob.
+   */
+  private final class Walk implements Iterator<FileSystemElement> {
+    /**
+     * The directories being walked, innermost on top.
+     */
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    /**
+     * A matcher for each component with wildcards, reused across names.
+     */
+    private final Matcher[] matchers = new Matcher[length];
+    /**
+     * The next match, or null if it has not been found yet.
+     */
+    private FileSystemElement next;
+
+    /**
+     * Constructs a new Walk object.
+     *
+     * @param base the directory to match from
+     */
+    Walk(final Directory base) {
+      for (int i = 0; i < length; i++) {
+        if (patterns[i] != null)
+          matchers[i] = patterns[i].matcher("");
+      }
+      stack.push(new Frame(base, closure(1L)));
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null)
+        next = advance();
+      return next != null;
+    }
+
+    @Override
+    public FileSystemElement next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      final FileSystemElement e = next;
+      next = null;
+      return e;
+    }
+
+    /**
+     * Walks on to the next match.
+     *
+     * @return the next match, or null if there is none
+     */
+    private FileSystemElement advance() {
+      final long done = 1L << length;
+      while (!stack.isEmpty()) {
+        final Frame frame = stack.peek();
+        final FileSystemElement child = frame.nextChild();
+        if (child == null) {
+          stack.pop();
+          continue;
+        }
+        Metrics.visited(Metrics.Op.GLOB, 1);
+        final long states = step(frame.states, child.getName());
+        if (states == 0)
+          continue;
+        if (child instanceof Directory && (states & ~done) != 0)
+          stack.push(new Frame((Directory)child, states));
+        if ((states & done) != 0)
+          return child;
+      }
+      return null;
+    }
+
+    /**
+     * Returns the positions reached by matching one more name.
+     *
+     * @param states the positions before the name
+     * @param name   the name
+     * @return the positions after the name, closed
+     */
+    private long step(final long states, final String name) {
+      long reached = 0;
+      for (long s = states & ((1L << length) - 1); s != 0; s &= s - 1) {
+        final int i = Long.numberOfTrailingZeros(s);
+        if ((anyDepth & (1L << i)) != 0)
+          reached |= i == length - 1 ? 3L << i : 1L << i;
+        else if (literals[i] != null ? literals[i].equals(name)
+                                     : matchers[i].reset(name).matches())
+          reached |= 1L << (i + 1);
+      }
+      return closure(reached);
+    }
+
+    /**
+     * A directory being walked and the positions it has reached.
+     */
+    private final class Frame {
+      /**
+       * The positions the directory has reached.
+       */
+      private final long states;
+      /**
+       * The children still to visit, when they are listed.
+       */
+      private final Iterator<FileSystemElement> children;
+      /**
+       * The children still to visit, when they are looked up by name.
+       */
+      private final Deque<FileSystemElement> named;
+
+      /**
+       * Constructs a new Frame object.
+       *
+       * @param directory the directory
+       * @param states    the positions the directory has reached
+       */
+      Frame(final Directory directory, final long states) {
+        this.states = states;
+        final long open = states & ((1L << length) - 1);
+        boolean allLiteral = true;
+        for (long s = open; s != 0; s &= s - 1) {
+          if (literals[Long.numberOfTrailingZeros(s)] == null)
+            allLiteral = false;
+        }
+        if (allLiteral) {
+          children = null;
+          named = new ArrayDeque<>();
+          for (long s = open; s != 0; s &= s - 1) {
+            final FileSystemElement child =
+                directory.find(literals[Long.numberOfTrailingZeros(s)]);
+            if (child != null && !named.contains(child))
+              named.addLast(child);
+          }
+        } else {
+          children = directory.getChildren().iterator();
+          named = null;
+        }
+      }
+
+      /**
+       * Returns the next child to visit.
+       *
+       * @return the child, or null if there is none left
+       */
+      FileSystemElement nextChild() {
+        if (children != null)
+          return children.hasNext() ? children.next() : null;
+        return named.pollFirst();
+      }
+    }
+  }
+}
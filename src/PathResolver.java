@@ -0,0 +1,112 @@
+package src;
+
+/**
+ * Resolves slash separated paths to directories. The path is tokenized in
+ * place by offsets and normalized as it is walked: empty and {@code .}
+ * components are skipped, and {@code ..} steps up to the parent, staying at
+ * the root once there. Each component costs at most one child lookup or one
+ * step up, so resolution does not allocate and a relative path costs the
+ * number of its components, not the depth of the directory it reaches.
+ */
+public final class PathResolver {
+  /**
+   * Prevents instantiation.
+   */
+  private PathResolver() {}
+
+  /**
+   * Resolves the specified absolute path starting at the specified root. An
+   * empty path denotes the root.
+   *
+   * @param root the root directory
+   * @param path the path to resolve
+   * @return the directory at the path, or null if not found or if the path
+   * denotes a file
+   */
+  public static Directory resolve(final Directory root, final String path) {
+    if (path.isEmpty())
+      return root;
+    if (path.charAt(0) != '/')
+      return null;
+    return walk(root, path, 1);
+  }
+
+  /**
+   * Resolves the specified path, which is absolute if it starts with a slash
+   * and relative to the specified base directory otherwise. An empty path
+   * denotes the base directory.
+   *
+   * @param root the root directory
+   * @param base the directory relative paths start from
+   * @param path the path to resolve
+   * @return the directory at the path, or null if not found or if the path
+   * denotes a file
+   */
+  public static Directory resolve(final Directory root, final Directory base,
+                                  final String path) {
+    if (!path.isEmpty() && path.charAt(0) == '/')
+      return walk(root, path, 1);
+    return walk(base, path, 0);
+  }
+
+  /**
+   * Walks down from the specified directory along the components of the path
+   * that start at the specified index.
+   *
+   * @param from  the directory to start from
+   * @param path  the path
+   * @param start the index of the first component
+   * @return the directory at the path, or null if not found or if the path
+   * denotes a file
+   */
+  private static Directory walk(final Directory from, final String path,
+                                final int start) {
+    final int length = path.length();
+    Directory current = from;
+    int i = start;
+    while (i < length) {
+      int end = path.indexOf('/', i);
+      if (end < 0)
+        end = length;
+      if (isDotDot(path, i, end)) {
+        final Directory parent = current.getParent();
+        if (parent != null)
+          current = parent;
+      } else if (end > i && !isDot(path, i, end)) {
+        final FileSystemElement child = current.find(path, i, end);
+        if (!(child instanceof Directory))
+          return null;
+        current = (Directory)child;
+      }
+      i = end + 1;
+    }
+    return current;
+  }
+
+  /**
+   * Returns whether a component of a path is {@code .}.
+   *
+   * @param path  the path
+   * @param start the index of the component
+   * @param end   the index after the component
+   * @return true if the component is a single dot
+   */
+  private static boolean isDot(final String path, final int start,
+                               final int end) {
+    return end - start == 1 && path.charAt(start) == '.';
+  }
+
+  /**
+   * Returns whether a component of a path is {@code ..}.
+   *
+   * @param path  the path
+   * @param start the index of the component
+   * @param end   the index after the component
+   * @return true if the component is two dots
+   */
+  private static boolean isDotDot(final String path, final int start,
+                                  final int end) {
+    return end - start == 2 && path.charAt(start) == '.' &&
+        path.charAt(start + 1) == '.';
+  }
+}
@@ -0,0 +1,166 @@
+package src;
+
+/**
+ * Represents a client session on a file system. A session holds its own
+ * current directory and resolves relative paths against it, so many sessions
+ * can share one tree. A session is meant to be used by one client at a time.
+ */
+public class Session {
+  /**
+   * The file system of the session.
+   */
+  private final FileSystem fs;
+  /**
+   * The current directory of the session.
+   */
+  private Directory currentDirectory;
+
+  /**
+   * Constructs a new Session object on the specified file system, starting at
+   * its root directory.
+   *
+   * @param fs the file system
+   */
+  public Session(final FileSystem fs) {
+    this.fs = fs;
+    this.currentDirectory = fs.getRoot();
+  }
+
+  /**
+   * Returns the file system of the session.
+   *
+   * @return the file system
+   */
+  public FileSystem getFileSystem() { return fs; }
+
+  /**
+   * Returns the current directory of the session.
+   *
+   * @return the current directory
+   */
+  public Directory getCurrentDirectory() { return currentDirectory; }
+
+  /**
+   * Sets the current directory of the session.
+   *
+   * @param currentDirectory the current directory
+   */
+  public void setCurrentDirectory(final Directory currentDirectory) {
+    this.currentDirectory = currentDirectory;
+  }
+
+  /**
+   * Sets the current directory of the session to the directory with the
+   * specified path.
+   *
+   * @param path the absolute or relative path of the directory
+   * @throws IllegalArgumentException if the directory is not found
+   */
+  public void setCurrentDirectory(final String path) {
+    final Directory newCurrentDirectory = findDirectory(path);
+    if (newCurrentDirectory == null)
+      throw new IllegalArgumentException("Directory not found");
+    currentDirectory = newCurrentDirectory;
+  }
+
+  /**
+   * Returns the path to the current directory.
+   *
+   * @return the absolute path of the current directory
+   */
+  public String getCurrentPath() { return currentDirectory.getPath(); }
+
+  /**
+   * Finds the directory with the specified path. Paths that do not start with
+   * a slash are resolved against the current directory; absolute paths go
+   * through the path cache of the file system. An empty path denotes the
+   * root.
+   *
+   * @param path the absolute or relative path of the directory
+   * @return the found directory, or null if not found
+   */
+  public Directory findDirectory(final String path) {
+    if (path.isEmpty() || path.charAt(0) == '/')
+      return fs.findDirectory(path);
+    return PathResolver.resolve(fs.getRoot(), currentDirectory, path);
+  }
+
+  /**
+   * Starts a batch of changes that is checked and applied all at once.
+   * Relative paths in the batch start from the current directory.
+   *
+   * @return the new transaction
+   */
+  public Transaction transaction() {
+    return new Transaction(fs, currentDirectory);
+  }
+
+  /**
+   * Prints the children of the current directory.
+   */
+  public void printCurrentChildren() { fs.printChildren(currentDirectory); }
+
+  /**
+   * Creates a new file with the specified name in the current directory.
+   *
+   * @param name the name of the file to create
+   * @return true if the file was created, false if the name is already taken
+   * @throws IllegalArgumentException if the name is invalid
+   */
+  public boolean createFile(final String name) {
+    return fs.createFile(currentDirectory, name);
+  }
+
+  /**
+   * Creates a new directory with the specified name in the current directory.
+   *
+   * @param name the name of the directory to create
+   * @return true if the directory was created, false if the name is already
+   * taken
+   * @throws IllegalArgumentException if the name is invalid
+   */
+  public boolean createDirectory(final String name) {
+    return fs.createDirectory(currentDirectory, name);
+  }
+
+  /**
+   * Deletes the file or directory with the specified name from the current
+   * directory.
+   *
+   * @param name the name of the file or directory to delete
+   * @return the deleted element
+   * @throws IllegalArgumentException if the element is not found
+   */
+  public FileSystemElement delete(final String name) {
+    return fs.delete(currentDirectory, name);
+  }
+
+  /**
+   * Renames the file or directory with the specified name in the current
+   * directory.
+   *
+   * @param name    the name of the file or directory to rename
+   * @param newName the new name
+   * @throws IllegalArgumentException if the element is not found or the new
+   *                                  name is invalid or already taken
+   */
+  public void rename(final String name, final String newName) {
+    fs.rename(currentDirectory, name, newName);
+  }
+
+  /**
+   * Moves the file or directory with the specified name in the current
+   * directory to the directory with the specified path.
+   *
+   * @param name the name of the file or directory to move
+   * @param path the absolute or relative path of the new parent directory
+   * @throws IllegalArgumentException if the element or the directory is not
+   *                                  found, or the move is not possible
+   */
+  public void move(final String name, final String path) {
+    final Directory newParent = findDirectory(path);
+    if (newParent == null)
+      throw new IllegalArgumentException("Directory not found");
+    fs.move(currentDirectory, name, newParent);
+  }
+}
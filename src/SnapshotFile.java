@@ -0,0 +1,289 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and loads whole file systems in a compact binary format.
+ *
+ * <p>A snapshot starts with a magic number and a version, followed by a string
+ * table holding every distinct name once and by one record per element in
+ * pre-order. A record holds the kind of the element, the index of its name in
+ * the string table, the index of the record of its parent and its creation
+ * time. Loading maps the file into memory, pools the names of the string
+ * table and builds each directory with its containers sized up front.
+ */
+public final class SnapshotFile {
+  /**
+   * The magic number at the start of a snapshot.
+   */
+  private static final int MAGIC = 0x46534E50;
+  /**
+   * The version of the format.
+   */
+  private static final int VERSION = 1;
+  /**
+   * The kind of a directory record.
+   */
+  private static final byte DIRECTORY = 0;
+  /**
+   * The kind of a file record.
+   */
+  private static final byte FILE = 1;
+  /**
+   * The size of a node record: kind, name, parent and creation time.
+   */
+  private static final int RECORD_SIZE = 1 + 4 + 4 + 8;
+
+  /**
+   * Prevents instantiation.
+   */
+  private SnapshotFile() {}
+
+  /**
+   * Saves the tree of the specified file system to the specified file. The
+   * snapshot is written to a temporary file and forced to disk, then moved
+   * into place and the move forced too, so an existing snapshot is never left
+   * half written and the new one is durable once this method returns.
+   *
+   * @param fs   the file system to save
+   * @param path the file to save to
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(final FileSystem fs, final Path path)
+      throws IOException {
+    final List<FileSystemElement> order = new ArrayList<>();
+    int[] parents = new int[1024];
+    // Names are pooled, so equal names are the same String.
+    final Map<String, Integer> strings = new IdentityHashMap<>();
+    final List<String> table = new ArrayList<>();
+    final Deque<FileSystemElement> stack = new ArrayDeque<>();
+    final Deque<Integer> parentStack = new ArrayDeque<>();
+    stack.push(fs.getRoot());
+    parentStack.push(-1);
+    while (!stack.isEmpty()) {
+      final FileSystemElement e = stack.pop();
+      final int id = order.size();
+      if (id == parents.length)
+        parents = Arrays.copyOf(parents, id * 2);
+      parents[id] = parentStack.pop();
+      order.add(e);
+      if (strings.putIfAbsent(e.getName(), table.size()) == null)
+        table.add(e.getName());
+      if (e instanceof Directory) {
+        final List<FileSystemElement> children = ((Directory)e).getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+          stack.push(children.get(i));
+          parentStack.push(id);
+        }
+      }
+    }
+
+    final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+             tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+             StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+      buf.putInt(MAGIC).putInt(VERSION).putInt(table.size());
+      for (final String s : table) {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensure(channel, buf, 4 + bytes.length);
+        buf.putInt(bytes.length);
+        for (int off = 0; off < bytes.length;) {
+          final int n = Math.min(buf.remaining(), bytes.length - off);
+          buf.put(bytes, off, n);
+          off += n;
+          ensure(channel, buf, 1);
+        }
+      }
+      ensure(channel, buf, 4);
+      buf.putInt(order.size());
+      for (int i = 0; i < order.size(); i++) {
+        final FileSystemElement e = order.get(i);
+        ensure(channel, buf, RECORD_SIZE);
+        buf.put(e instanceof Directory ? DIRECTORY : FILE)
+            .putInt(strings.get(e.getName()))
+            .putInt(parents[i])
+            .putLong(e.getCreationTime());
+      }
+      drain(channel, buf);
+      channel.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory(path.toAbsolutePath().getParent());
+  }
+
+  /**
+   * Forces the entries of a directory to disk, so that a file moved into it
+   * survives a crash.
+   *
+   * @param dir the directory
+   * @throws IOException if the directory cannot be forced
+   */
+  private static void syncDirectory(final Path dir) throws IOException {
+    final FileChannel channel;
+    try {
+      channel = FileChannel.open(dir, StandardOpenOption.READ);
+    } catch (final IOException e) {
+      // Some platforms cannot open a directory; their moves are durable.
+      return;
+    }
+    try (FileChannel c = channel) {
+      c.force(true);
+    }
+  }
+
+  /**
+   * Writes the buffer out if it has less than the specified room left.
+   *
+   * @param channel the channel to write to
+   * @param buf     the buffer
+   * @param room    the number of bytes about to be put
+   * @throws IOException if the channel fails
+   */
+  private static void ensure(final FileChannel channel, final ByteBuffer buf,
+                             final int room) throws IOException {
+    if (buf.remaining() < room)
+      drain(channel, buf);
+  }
+
+  /**
+   * Writes out everything in the buffer and clears it.
+   *
+   * @param channel the channel to write to
+   * @param buf     the buffer
+   * @throws IOException if the channel fails
+   */
+  private static void drain(final FileChannel channel, final ByteBuffer buf)
+      throws IOException {
+    buf.flip();
+    while (buf.hasRemaining())
+      channel.write(buf);
+    buf.clear();
+  }
+
+  /**
+   * Loads a new file system from the specified snapshot.
+   *
+   * @param path the snapshot to load
+   * @return the loaded file system
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  public static FileSystem load(final Path path) throws IOException {
+    final FileSystem fs = new FileSystem();
+    load(path, fs);
+    return fs;
+  }
+
+  /**
+   * Replaces the tree of the specified file system with the one in the
+   * specified snapshot.
+   *
+   * @param path the snapshot to load
+   * @param fs   the file system to load into
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  public static void load(final Path path, final FileSystem fs)
+      throws IOException {
+    final MappedByteBuffer buf;
+    try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      fs.setRoot(read(buf));
+    } catch (final RuntimeException e) {
+      throw new IOException("Corrupt snapshot " + path, e);
+    }
+  }
+
+  /**
+   * Reads a tree from the specified buffer.
+   *
+   * @param buf the buffer holding a snapshot
+   * @return the root directory of the tree
+   * @throws IOException if the buffer does not hold a valid snapshot
+   */
+  private static Directory read(final ByteBuffer buf) throws IOException {
+    if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+      throw new IOException("Not a snapshot");
+    final String[] table = new String[buf.getInt()];
+    byte[] bytes = new byte[64];
+    for (int i = 0; i < table.length; i++) {
+      final int length = buf.getInt();
+      if (length > bytes.length)
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      buf.get(bytes, 0, length);
+      table[i] =
+          NamePool.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    final int count = buf.getInt();
+    if (count <= 0)
+      throw new IOException("Snapshot has no root");
+    final int records = buf.position();
+    // First pass: count the children of every record so that each directory
+    // can size its containers once.
+    final int[] childCounts = new int[count];
+    for (int i = 1; i < count; i++) {
+      final int parent = buf.getInt(records + i * RECORD_SIZE + 5);
+      if (parent < 0 || parent >= i)
+        throw new IOException("Bad parent offset in record " + i);
+      childCounts[parent]++;
+    }
+
+    final Directory[] directories = new Directory[count];
+    Directory root = null;
+    for (int i = 0; i < count; i++) {
+      final byte kind = buf.get();
+      final String name = table[buf.getInt()];
+      final int parentId = buf.getInt();
+      final long time = buf.getLong();
+      final Directory parent = parentId < 0 ? null : directories[parentId];
+      if (i > 0 && parent == null)
+        throw new IOException("Parent of record " + i + " is not a directory");
+      final FileSystemElement e;
+      if (kind == DIRECTORY) {
+        final Directory d = new Directory(name, parent);
+        if (childCounts[i] > 0)
+          d.reserve(childCounts[i]);
+        directories[i] = d;
+        e = d;
+      } else if (kind == FILE && i > 0) {
+        e = new File(name, parent);
+      } else {
+        throw new IOException("Bad kind in record " + i);
+      }
+      e.setCreationTime(time);
+      if (parent == null)
+        root = (Directory)e;
+      else if (!parent.addUncounted(e))
+        throw new IOException("Duplicate name " + name);
+    }
+    // Count the subtrees once, bottom up, instead of on every add.
+    final Iterator<FileSystemElement> it =
+        root.iterator(TraversalOrder.POST_ORDER);
+    while (it.hasNext()) {
+      final FileSystemElement e = it.next();
+      if (e instanceof Directory)
+        ((Directory)e).recount();
+    }
+    return root;
+  }
+}
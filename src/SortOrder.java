@@ -0,0 +1,47 @@
+package src;
+
+import java.util.Comparator;
+
+/**
+ * The orders the children of a directory can be listed in. Names are unique
+ * within a directory, so every order breaks ties by name and never considers
+ * two different children equal.
+ */
+public enum SortOrder {
+  /**
+   * By name.
+   */
+  NAME(Comparator.comparing(FileSystemElement::getName)),
+  /**
+   * By creation date, oldest first.
+   */
+  CREATION_DATE(Comparator.comparingLong(FileSystemElement::getCreationTime)
+                    .thenComparing(FileSystemElement::getName)),
+  /**
+   * Directories before files, each by name.
+   */
+  TYPE_THEN_NAME(
+      Comparator.comparing((FileSystemElement e) -> !(e instanceof Directory))
+          .thenComparing(FileSystemElement::getName));
+
+  /**
+   * The comparator of the order.
+   */
+  private final Comparator<FileSystemElement> comparator;
+
+  /**
+   * Constructs a new SortOrder constant.
+   *
+   * @param comparator the comparator of the order
+   */
+  SortOrder(final Comparator<FileSystemElement> comparator) {
+    this.comparator = comparator;
+  }
+
+  /**
+   * Returns the comparator of the order.
+   *
+   * @return the comparator
+   */
+  public Comparator<FileSystemElement> comparator() { return comparator; }
+}
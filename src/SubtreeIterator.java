@@ -0,0 +1,213 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over an element and everything below it in a {@link
+ * TraversalOrder}. The depth first orders keep the open directories and their
+ * positions in two arrays that grow with the depth, and the breadth first
+ * order keeps a queue of the directories still to list, so the walk never
+ * recurses and allocates nothing per element.
+ *
+ * <p>Children are visited in the order they were added in. The iterator is
+ * not fail-fast: if the tree changes during the walk, elements may be missed
+ * or visited twice, but the walk always ends.
+ */
+public final class SubtreeIterator implements Iterator<FileSystemElement> {
+  /**
+   * The order of the walk.
+   */
+  private final TraversalOrder order;
+  /**
+   * The open directories of a depth first walk, outermost first.
+   */
+  private Directory[] directories;
+  /**
+   * The index of the next child of each open directory.
+   */
+  private int[] positions;
+  /**
+   * The number of open directories.
+   */
+  private int depth;
+  /**
+   * The directories whose children a breadth first walk has yet to list,
+   * starting with the one being listed.
+   */
+  private final ArrayDeque<Directory> queue;
+  /**
+   * The index of the next child of the directory being listed breadth first.
+   */
+  private int position;
+  /**
+   * The next element, or null if it has not been found yet.
+   */
+  private FileSystemElement next;
+  /**
+   * The level of the next element below the root.
+   */
+  private int nextLevel;
+  /**
+   * The level of the last returned element below the root.
+   */
+  private int level;
+
+  /**
+   * Constructs a new SubtreeIterator object.
+   *
+   * @param root  the element to start from, which is visited too
+   * @param order the order of the walk
+   */
+  public SubtreeIterator(final FileSystemElement root,
+                         final TraversalOrder order) {
+    this.order = order;
+    if (order == TraversalOrder.BREADTH_FIRST) {
+      queue = new ArrayDeque<>();
+      next = root;
+      if (root instanceof Directory)
+        queue.add((Directory)root);
+    } else {
+      queue = null;
+      directories = new Directory[16];
+      positions = new int[16];
+      if (root instanceof Directory)
+        open((Directory)root);
+      if (order == TraversalOrder.PRE_ORDER || depth == 0)
+        next = root;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null)
+      next = advance();
+    return next != null;
+  }
+
+  @Override
+  public FileSystemElement next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    final FileSystemElement e = next;
+    next = null;
+    level = nextLevel;
+    return e;
+  }
+
+  /**
+   * Returns the level of the last returned element of a depth first walk,
+   * zero for the root.
+   *
+   * @return the level of the last returned element
+   * @throws IllegalStateException if the walk is breadth first
+   */
+  public int level() {
+    if (queue != null)
+      throw new IllegalStateException("Levels are not tracked breadth first");
+    return level;
+  }
+
+  /**
+   * Walks on to the next element.
+   *
+   * @return the next element, or null if there is none
+   */
+  private FileSystemElement advance() {
+    switch (order) {
+    case PRE_ORDER:
+      return advancePreOrder();
+    case POST_ORDER:
+      return advancePostOrder();
+    default:
+      return advanceBreadthFirst();
+    }
+  }
+
+  /**
+   * Walks on to the next element in pre-order.
+   *
+   * @return the next element, or null if there is none
+   */
+  private FileSystemElement advancePreOrder() {
+    while (depth > 0) {
+      final Directory d = directories[depth - 1];
+      final int i = positions[depth - 1];
+      if (i >= d.childCount()) {
+        directories[--depth] = null;
+        continue;
+      }
+      positions[depth - 1] = i + 1;
+      final FileSystemElement child = d.child(i);
+      nextLevel = depth;
+      if (child instanceof Directory)
+        open((Directory)child);
+      return child;
+    }
+    return null;
+  }
+
+  /**
+   * Walks on to the next element in post-order.
+   *
+   * @return the next element, or null if there is none
+   */
+  private FileSystemElement advancePostOrder() {
+    while (depth > 0) {
+      final Directory d = directories[depth - 1];
+      final int i = positions[depth - 1];
+      if (i >= d.childCount()) {
+        directories[--depth] = null;
+        nextLevel = depth;
+        return d;
+      }
+      positions[depth - 1] = i + 1;
+      final FileSystemElement child = d.child(i);
+      if (child instanceof Directory) {
+        open((Directory)child);
+      } else {
+        nextLevel = depth;
+        return child;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Walks on to the next element in breadth first order. The directory at the
+   * head of the queue is the one being listed.
+   *
+   * @return the next element, or null if there is none
+   */
+  private FileSystemElement advanceBreadthFirst() {
+    while (!queue.isEmpty()) {
+      final Directory d = queue.peek();
+      if (position >= d.childCount()) {
+        queue.poll();
+        position = 0;
+        continue;
+      }
+      final FileSystemElement child = d.child(position++);
+      if (child instanceof Directory)
+        queue.add((Directory)child);
+      return child;
+    }
+    return null;
+  }
+
+  /**
+   * Opens a directory of a depth first walk.
+   *
+   * @param d the directory
+   */
+  private void open(final Directory d) {
+    if (depth == directories.length) {
+      directories = Arrays.copyOf(directories, depth * 2);
+      positions = Arrays.copyOf(positions, depth * 2);
+    }
+    directories[depth] = d;
+    positions[depth++] = 0;
+  }
+}
@@ -0,0 +1,128 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits a pre-order walk of a subtree for parallel streams. The spliterator
+ * holds the subtrees it has yet to walk; it splits by handing its prefix of
+ * them, about half by weight, to a new spliterator. When a single subtree is
+ * left, its root is set aside to be returned first and its children become
+ * the subtrees, so a deep or narrow tree still splits.
+ *
+ * <p>The weight of a subtree is its number of elements, which every directory
+ * keeps up to date, so the halves are even and the size estimate is exact
+ * until the tree changes.
+ */
+final class SubtreeSpliterator implements Spliterator<FileSystemElement> {
+  /**
+   * The walk of the subtree being traversed, or null.
+   */
+  private SubtreeIterator current;
+  /**
+   * The roots set aside by splitting, to be returned on their own after the
+   * current walk.
+   */
+  private final ArrayDeque<FileSystemElement> heads = new ArrayDeque<>();
+  /**
+   * The subtrees to walk after the heads, in order.
+   */
+  private final ArrayDeque<FileSystemElement> subtrees = new ArrayDeque<>();
+  /**
+   * The number of elements of the subtrees.
+   */
+  private long weight;
+
+  /**
+   * Constructs a new SubtreeSpliterator object.
+   *
+   * @param root the root of the subtree to walk
+   */
+  SubtreeSpliterator(final FileSystemElement root) {
+    subtrees.add(root);
+    weight = weightOf(root);
+  }
+
+  /**
+   * Constructs an empty SubtreeSpliterator object to split into.
+   */
+  private SubtreeSpliterator() {}
+
+  @Override
+  public boolean tryAdvance(final Consumer<? super FileSystemElement> action) {
+    while (true) {
+      if (current != null) {
+        if (current.hasNext()) {
+          action.accept(current.next());
+          return true;
+        }
+        current = null;
+      }
+      if (!heads.isEmpty()) {
+        action.accept(heads.poll());
+        return true;
+      }
+      final FileSystemElement root = subtrees.poll();
+      if (root == null)
+        return false;
+      weight = Math.max(weight - weightOf(root), 0);
+      current = new SubtreeIterator(root, TraversalOrder.PRE_ORDER);
+    }
+  }
+
+  @Override
+  public Spliterator<FileSystemElement> trySplit() {
+    while (subtrees.size() == 1 && subtrees.peek() instanceof Directory) {
+      final Directory d = (Directory)subtrees.peek();
+      final int count = d.childCount();
+      if (count == 0)
+        break;
+      subtrees.poll();
+      heads.add(d);
+      weight = 0;
+      for (int i = 0; i < count; i++) {
+        final FileSystemElement child = d.child(i);
+        subtrees.add(child);
+        weight += weightOf(child);
+      }
+    }
+    if (subtrees.size() < 2)
+      return null;
+    final SubtreeSpliterator prefix = new SubtreeSpliterator();
+    prefix.current = current;
+    prefix.heads.addAll(heads);
+    current = null;
+    heads.clear();
+    final long half = weight / 2;
+    do {
+      final FileSystemElement e = subtrees.poll();
+      final long w = weightOf(e);
+      prefix.subtrees.add(e);
+      prefix.weight += w;
+      weight -= w;
+    } while (prefix.weight < half && subtrees.size() > 1);
+    weight = Math.max(weight, 0);
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return (current == null ? 0 : 1) + heads.size() + weight;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | DISTINCT | NONNULL;
+  }
+
+  /**
+   * Returns the number of elements of a subtree.
+   *
+   * @param e the root of the subtree
+   * @return the size of the subtree, including its root
+   */
+  private static long weightOf(final FileSystemElement e) {
+    return e instanceof Directory ? 1 + ((Directory)e).getSubtreeSize() : 1;
+  }
+}
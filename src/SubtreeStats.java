@@ -0,0 +1,65 @@
+package src;
+
+/**
+ * Aggregate figures of a directory subtree.
+ */
+public class SubtreeStats {
+  /**
+   * The number of files in the subtree.
+   */
+  private final long files;
+  /**
+   * The number of directories in the subtree, not counting its root.
+   */
+  private final long directories;
+  /**
+   * The number of levels below the root of the subtree.
+   */
+  private final int depth;
+
+  /**
+   * Constructs a new SubtreeStats object.
+   *
+   * @param files       the number of files
+   * @param directories the number of directories, not counting the root
+   * @param depth       the number of levels below the root
+   */
+  public SubtreeStats(final long files, final long directories,
+                      final int depth) {
+    this.files = files;
+    this.directories = directories;
+    this.depth = depth;
+  }
+
+  /**
+   * Returns the number of files in the subtree.
+   *
+   * @return the number of files
+   */
+  public long getFiles() { return files; }
+
+  /**
+   * Returns the number of directories in the subtree, not counting its root.
+   *
+   * @return the number of directories
+   */
+  public long getDirectories() { return directories; }
+
+  /**
+   * Returns the number of levels below the root of the subtree. An empty
+   * directory has a depth of zero.
+   *
+   * @return the depth
+   */
+  public int getDepth() { return depth; }
+
+  /**
+   * Returns a string representation of the figures.
+   *
+   * @return a string representation of the figures
+   */
+  @Override
+  public String toString() {
+    return files + " files, " + directories + " directories, depth " + depth;
+  }
+}
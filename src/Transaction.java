@@ -0,0 +1,532 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of changes applied to a file system all at once. Changes are
+ * collected by path, then {@link #commit()} checks the whole batch before
+ * touching the tree and applies it in one go.
+ *
+ * <p>The check replays the batch on an overlay of the tree: each directory
+ * the batch touches is shadowed by a node that records the children it gained
+ * and lost, so later changes see the effects of earlier ones, including
+ * directories created by the batch, without the tree being changed. Missing
+ * parents and elements, names already taken, invalid names and moves of a
+ * directory into its own subtree are all reported before anything is applied.
+ * Paths are resolved once, during the check; applying a change then costs
+ * one child lookup.
+ *
+ * <p>While the batch is applied, each change records how to undo itself, so
+ * that a failure leaves the tree as it was. The batch is written to the
+ * journal as a single record, builds a single new version for snapshots and,
+ * on a {@link ConcurrentFileSystem}, takes the locks once. A transaction is
+ * meant to be used by one thread and committed once.
+ */
+public final class Transaction {
+  /**
+   * The file system the changes are made to.
+   */
+  private final FileSystem fs;
+  /**
+   * The directory relative paths start from.
+   */
+  private final Directory base;
+  /**
+   * The collected changes, in order.
+   */
+  private final List<Step> steps = new ArrayList<>();
+  /**
+   * Whether the transaction was committed.
+   */
+  private boolean committed;
+
+  /**
+   * Constructs a new Transaction object.
+   *
+   * @param fs   the file system the changes are made to
+   * @param base the directory relative paths start from
+   */
+  Transaction(final FileSystem fs, final Directory base) {
+    this.fs = fs;
+    this.base = base;
+  }
+
+  /**
+   * Adds the creation of a file.
+   *
+   * @param parentPath the absolute or relative path of the parent directory
+   * @param name       the name of the file
+   * @return this transaction
+   */
+  public Transaction createFile(final String parentPath, final String name) {
+    return add(Journal.Op.CREATE_FILE, parentPath, name, null);
+  }
+
+  /**
+   * Adds the creation of a directory.
+   *
+   * @param parentPath the absolute or relative path of the parent directory
+   * @param name       the name of the directory
+   * @return this transaction
+   */
+  public Transaction createDirectory(final String parentPath,
+                                    final String name) {
+    return add(Journal.Op.CREATE_DIRECTORY, parentPath, name, null);
+  }
+
+  /**
+   * Adds the deletion of a file or directory.
+   *
+   * @param parentPath the absolute or relative path of the parent directory
+   * @param name       the name of the element
+   * @return this transaction
+   */
+  public Transaction delete(final String parentPath, final String name) {
+    return add(Journal.Op.DELETE, parentPath, name, null);
+  }
+
+  /**
+   * Adds the move of a file or directory.
+   *
+   * @param parentPath    the absolute or relative path of the parent directory
+   * @param name          the name of the element
+   * @param newParentPath the absolute or relative path of the new parent
+   * @return this transaction
+   */
+  public Transaction move(final String parentPath, final String name,
+                          final String newParentPath) {
+    return add(Journal.Op.MOVE, parentPath, name, newParentPath);
+  }
+
+  /**
+   * Adds the rename of a file or directory.
+   *
+   * @param parentPath the absolute or relative path of the parent directory
+   * @param name       the name of the element
+   * @param newName    the new name
+   * @return this transaction
+   */
+  public Transaction rename(final String parentPath, final String name,
+                            final String newName) {
+    return add(Journal.Op.RENAME, parentPath, name, newName);
+  }
+
+  /**
+   * Returns the number of changes collected.
+   *
+   * @return the number of changes
+   */
+  public int size() { return steps.size(); }
+
+  /**
+   * Checks the whole batch and applies it. Nothing is applied if a change
+   * is invalid, and a failure while applying undoes the changes already made.
+   *
+   * @throws IllegalArgumentException if a change is invalid; the message
+   *                                  names the first invalid change
+   * @throws IllegalStateException    if the transaction was already committed
+   */
+  public void commit() {
+    if (committed)
+      throw new IllegalStateException("Transaction already committed");
+    committed = true;
+    fs.commit(this);
+  }
+
+  /**
+   * Adds a change.
+   *
+   * @param op         the operation
+   * @param parentPath the path of the parent directory
+   * @param name       the name of the element
+   * @param arg        the new parent path or new name, or null
+   * @return this transaction
+   * @throws IllegalStateException if the transaction was already committed
+   */
+  private Transaction add(final Journal.Op op, final String parentPath,
+                          final String name, final String arg) {
+    if (committed)
+      throw new IllegalStateException("Transaction already committed");
+    steps.add(new Step(op, parentPath, name, arg));
+    return this;
+  }
+
+  /**
+   * Checks the batch against the specified tree and resolves its paths.
+   * Must be called while the tree cannot change.
+   *
+   * @param root the root of the tree
+   * @return the changes, resolved
+   * @throws IllegalArgumentException if a change is invalid
+   */
+  List<Step> validate(final Directory root) {
+    final Overlay overlay = new Overlay(root);
+    for (int i = 0; i < steps.size(); i++) {
+      try {
+        overlay.check(steps.get(i));
+      } catch (final IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "Change " + (i + 1) + " (" + steps.get(i) + "): " + e.getMessage(),
+            e);
+      }
+    }
+    return steps;
+  }
+
+  /**
+   * One change of the batch.
+   */
+  static final class Step {
+    /**
+     * The operation.
+     */
+    private final Journal.Op op;
+    /**
+     * The path of the parent directory.
+     */
+    private final String parentPath;
+    /**
+     * The name of the element.
+     */
+    private final String name;
+    /**
+     * The new parent path of a move or the new name of a rename, or null.
+     */
+    private final String arg;
+    /**
+     * The parent directory, once resolved.
+     */
+    private Shadow parent;
+    /**
+     * The new parent directory of a move, once resolved.
+     */
+    private Shadow target;
+    /**
+     * The directory a creation makes, or null.
+     */
+    private Shadow created;
+
+    /**
+     * Constructs a new Step object.
+     *
+     * @param op         the operation
+     * @param parentPath the path of the parent directory
+     * @param name       the name of the element
+     * @param arg        the new parent path or new name, or null
+     */
+    Step(final Journal.Op op, final String parentPath, final String name,
+         final String arg) {
+      this.op = op;
+      this.parentPath = parentPath;
+      this.name = name;
+      this.arg = arg;
+    }
+
+    /**
+     * Returns the operation.
+     *
+     * @return the operation
+     */
+    Journal.Op op() { return op; }
+
+    /**
+     * Returns the name of the element.
+     *
+     * @return the name
+     */
+    String name() { return name; }
+
+    /**
+     * Returns the new name of a rename.
+     *
+     * @return the new name, or null
+     */
+    String newName() { return arg; }
+
+    /**
+     * Returns the parent directory. Steps are applied in order, so a parent
+     * created by the batch exists by the time it is asked for.
+     *
+     * @return the parent directory
+     */
+    Directory parent() { return (Directory)parent.real; }
+
+    /**
+     * Returns the new parent directory of a move.
+     *
+     * @return the new parent directory
+     */
+    Directory target() { return (Directory)target.real; }
+
+    /**
+     * Records the directory a creation made, so that later steps can use it.
+     *
+     * @param directory the new directory
+     */
+    void created(final Directory directory) {
+      if (created != null)
+        created.real = directory;
+    }
+
+    @Override
+    public String toString() {
+      return op + " " + parentPath + " " + name +
+          (arg == null ? "" : " " + arg);
+    }
+  }
+
+  /**
+   * An element as the batch sees it.
+   */
+  private static final class Shadow {
+    /**
+     * The element of the tree, or null for a directory the batch creates
+     * until it is applied.
+     */
+    FileSystemElement real;
+    /**
+     * Whether the element is a directory.
+     */
+    final boolean directory;
+    /**
+     * Whether {@link #parent} has been set.
+     */
+    boolean parentKnown;
+    /**
+     * The parent, or null at the root or once deleted.
+     */
+    Shadow parent;
+    /**
+     * The children gained, by name, and the names of the children lost,
+     * mapped to null, or null if the children are those of the tree.
+     */
+    Map<String, Shadow> changed;
+
+    /**
+     * Constructs a new Shadow object.
+     *
+     * @param real      the element of the tree, or null
+     * @param directory whether the element is a directory
+     */
+    Shadow(final FileSystemElement real, final boolean directory) {
+      this.real = real;
+      this.directory = directory;
+    }
+
+    /**
+     * Records a child gained or lost.
+     *
+     * @param name  the name of the child
+     * @param child the child, or null if it was lost
+     */
+    void put(final String name, final Shadow child) {
+      if (changed == null)
+        changed = new HashMap<>();
+      changed.put(name, child);
+    }
+  }
+
+  /**
+   * The tree as the batch has changed it so far.
+   */
+  private final class Overlay {
+    /**
+     * The shadow of each element of the tree looked at so far.
+     */
+    private final Map<FileSystemElement, Shadow> shadows =
+        new IdentityHashMap<>();
+    /**
+     * The shadow of the root.
+     */
+    private final Shadow root;
+    /**
+     * The shadow of the directory relative paths start from, or null if it
+     * is not in the tree.
+     */
+    private Shadow start;
+
+    /**
+     * Constructs a new Overlay object.
+     *
+     * @param root the root of the tree
+     */
+    Overlay(final Directory root) {
+      this.root = shadowOf(root);
+      this.start =
+          base == root || base.getParent() != null ? shadowOf(base) : null;
+    }
+
+    /**
+     * Checks one change and applies it to the overlay.
+     *
+     * @param step the change
+     * @throws IllegalArgumentException if the change is invalid
+     */
+    void check(final Step step) {
+      final Shadow parent = resolve(step.parentPath);
+      if (parent == null)
+        throw new IllegalArgumentException("Directory not found");
+      step.parent = parent;
+      final String name = step.name;
+      final Shadow element = child(parent, name);
+      switch (step.op) {
+      case CREATE_FILE:
+      case CREATE_DIRECTORY:
+        if (!FileSystem.isValidName(name))
+          throw new IllegalArgumentException("Invalid name");
+        if (element != null)
+          throw new IllegalArgumentException("Element already exists");
+        final boolean directory = step.op == Journal.Op.CREATE_DIRECTORY;
+        final Shadow made = new Shadow(null, directory);
+        made.parent = parent;
+        made.parentKnown = true;
+        parent.put(name, made);
+        if (directory)
+          step.created = made;
+        break;
+      case DELETE:
+        if (element == null)
+          throw new IllegalArgumentException("Element not found");
+        parent.put(name, null);
+        if (start != null && isAncestor(element, start))
+          start = null;
+        element.parent = null;
+        element.parentKnown = true;
+        break;
+      case MOVE:
+        if (element == null)
+          throw new IllegalArgumentException("Element not found");
+        final Shadow target = resolve(step.arg);
+        if (target == null)
+          throw new IllegalArgumentException("Directory not found");
+        step.target = target;
+        if (target == parent)
+          break;
+        if (isAncestor(element, target))
+          throw new IllegalArgumentException(
+              "Cannot move a directory into itself");
+        if (child(target, name) != null)
+          throw new IllegalArgumentException("Element already exists");
+        parent.put(name, null);
+        target.put(name, element);
+        element.parent = target;
+        element.parentKnown = true;
+        break;
+      case RENAME:
+        if (element == null)
+          throw new IllegalArgumentException("Element not found");
+        if (!FileSystem.isValidName(step.arg))
+          throw new IllegalArgumentException("Invalid name");
+        if (step.arg.equals(name))
+          break;
+        if (child(parent, step.arg) != null)
+          throw new IllegalArgumentException("Element already exists");
+        parent.put(name, null);
+        parent.put(step.arg, element);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown operation");
+      }
+    }
+
+    /**
+     * Resolves a path the way {@link FileSystem#findDirectory(String)} does,
+     * on the overlay. An empty path denotes the root.
+     *
+     * @param path the absolute or relative path
+     * @return the directory, or null if not found
+     */
+    private Shadow resolve(final String path) {
+      final boolean absolute = path.isEmpty() || path.charAt(0) == '/';
+      Shadow current = absolute ? root : start;
+      if (current == null)
+        return null;
+      final int length = path.length();
+      int i = absolute ? 1 : 0;
+      while (i < length) {
+        int end = path.indexOf('/', i);
+        if (end < 0)
+          end = length;
+        final String component = path.substring(i, end);
+        if (component.equals("..")) {
+          final Shadow parent = parentOf(current);
+          if (parent != null)
+            current = parent;
+        } else if (!component.isEmpty() && !component.equals(".")) {
+          final Shadow child = child(current, component);
+          if (child == null || !child.directory)
+            return null;
+          current = child;
+        }
+        i = end + 1;
+      }
+      return current;
+    }
+
+    /**
+     * Returns the child with the specified name of a directory.
+     *
+     * @param directory the directory
+     * @param name      the name
+     * @return the child, or null if there is none
+     */
+    private Shadow child(final Shadow directory, final String name) {
+      if (directory.changed != null && directory.changed.containsKey(name))
+        return directory.changed.get(name);
+      if (directory.real == null)
+        return null;
+      final FileSystemElement c = ((Directory)directory.real).find(name);
+      return c == null ? null : shadowOf(c);
+    }
+
+    /**
+     * Returns whether an element is the specified directory or one of its
+     * ancestors.
+     *
+     * @param element   the element
+     * @param directory the directory
+     * @return true if the directory is at or below the element
+     */
+    private boolean isAncestor(final Shadow element, final Shadow directory) {
+      for (Shadow d = directory; d != null; d = parentOf(d)) {
+        if (d == element)
+          return true;
+      }
+      return false;
+    }
+
+    /**
+     * Returns the parent of an element as the batch sees it.
+     *
+     * @param shadow the element
+     * @return the parent, or null at the root
+     */
+    private Shadow parentOf(final Shadow shadow) {
+      if (!shadow.parentKnown) {
+        final Directory p = shadow.real.getParent();
+        shadow.parent = p == null ? null : shadowOf(p);
+        shadow.parentKnown = true;
+      }
+      return shadow.parent;
+    }
+
+    /**
+     * Returns the shadow of an element of the tree.
+     *
+     * @param e the element
+     * @return the shadow
+     */
+    private Shadow shadowOf(final FileSystemElement e) {
+      Shadow s = shadows.get(e);
+      if (s == null) {
+        s = new Shadow(e, e instanceof Directory);
+        shadows.put(e, s);
+      }
+      return s;
+    }
+  }
+}
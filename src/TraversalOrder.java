@@ -0,0 +1,19 @@
+package src;
+
+/**
+ * The orders a directory subtree can be walked in.
+ */
+public enum TraversalOrder {
+  /**
+   * Every directory before its children, depth first.
+   */
+  PRE_ORDER,
+  /**
+   * Every directory after its children, depth first.
+   */
+  POST_ORDER,
+  /**
+   * Level by level, every directory before the deeper levels.
+   */
+  BREADTH_FIRST
+}
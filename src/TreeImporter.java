@@ -0,0 +1,210 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds a detached copy of a real directory tree. Nodes are constructed and
+ * linked directly, without resolving paths, and each directory below the top
+ * one is walked with {@link Files#walkFileTree} as its own task, so the
+ * top-level subtrees are read in parallel. The modification time of every
+ * entry becomes the creation date of its node. The subtree aggregates are
+ * computed once per directory as its walk finishes, rather than carried up the
+ * tree on every add.
+ *
+ * <p>Symbolic links are not followed; they are imported as files. Entries that
+ * cannot be read are skipped and counted.
+ */
+public class TreeImporter {
+  /**
+   * The pool the subtrees are read on.
+   */
+  private final ForkJoinPool pool;
+  /**
+   * The number of imported elements.
+   */
+  private final LongAdder imported = new LongAdder();
+  /**
+   * The number of entries that could not be read.
+   */
+  private final LongAdder skipped = new LongAdder();
+
+  /**
+   * Constructs a new TreeImporter object on the common pool.
+   */
+  public TreeImporter() { this(ForkJoinPool.commonPool()); }
+
+  /**
+   * Constructs a new TreeImporter object on the specified pool.
+   *
+   * @param pool the pool the subtrees are read on
+   */
+  public TreeImporter(final ForkJoinPool pool) { this.pool = pool; }
+
+  /**
+   * Returns the number of elements imported so far.
+   *
+   * @return the number of imported elements
+   */
+  public long getImported() { return imported.sum(); }
+
+  /**
+   * Returns the number of entries skipped so far because they could not be
+   * read.
+   *
+   * @return the number of skipped entries
+   */
+  public long getSkipped() { return skipped.sum(); }
+
+  /**
+   * Reads the specified directory and everything below it into a new
+   * directory. The new directory has no parent until it is attached.
+   *
+   * @param source the directory to read
+   * @return the new directory
+   * @throws IOException              if the top directory cannot be read
+   * @throws IllegalArgumentException if the source is not a directory
+   */
+  public Directory read(final Path source) throws IOException {
+    final BasicFileAttributes attrs = Files.readAttributes(
+        source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    if (!attrs.isDirectory())
+      throw new IllegalArgumentException("Not a directory: " + source);
+    final Directory top = new Directory(nameOf(source), null);
+    stamp(top, attrs);
+
+    final List<ForkJoinTask<Directory>> tasks = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+      for (final Path entry : entries) {
+        final BasicFileAttributes entryAttrs;
+        try {
+          entryAttrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                                            LinkOption.NOFOLLOW_LINKS);
+        } catch (final IOException e) {
+          skipped.increment();
+          continue;
+        }
+        if (entryAttrs.isDirectory()) {
+          tasks.add(pool.submit(() -> walk(entry, top)));
+        } else {
+          final File file = new File(entry.getFileName().toString(), top);
+          stamp(file, entryAttrs);
+          top.addUncounted(file);
+        }
+      }
+    }
+    top.reserve(tasks.size());
+    for (final ForkJoinTask<Directory> task : tasks) {
+      try {
+        final Directory d = task.get();
+        if (d != null)
+          top.addUncounted(d);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Import interrupted", e);
+      } catch (final ExecutionException e) {
+        if (e.getCause() instanceof IOException)
+          throw (IOException)e.getCause();
+        throw new IOException(e.getCause());
+      }
+    }
+    top.recount();
+    return top;
+  }
+
+  /**
+   * Reads one subtree with {@link Files#walkFileTree}.
+   *
+   * @param source the directory to read
+   * @param parent the parent of the new directory
+   * @return the new directory, not yet added to its parent, or null if the
+   * directory could not be read
+   * @throws IOException if the walk fails
+   */
+  private Directory walk(final Path source, final Directory parent)
+      throws IOException {
+    final Deque<Directory> stack = new ArrayDeque<>();
+    final Directory[] top = new Directory[1];
+    Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult
+      preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+        final Directory d;
+        if (stack.isEmpty()) {
+          d = new Directory(nameOf(dir), parent);
+          top[0] = d;
+        } else {
+          d = new Directory(dir.getFileName().toString(), stack.peek());
+          stack.peek().addUncounted(d);
+        }
+        stamp(d, attrs);
+        stack.push(d);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(final Path file,
+                                       final BasicFileAttributes attrs) {
+        final File f = new File(file.getFileName().toString(), stack.peek());
+        stamp(f, attrs);
+        stack.peek().addUncounted(f);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(final Path file,
+                                             final IOException e) {
+        skipped.increment();
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir,
+                                                final IOException e) {
+        if (e != null)
+          skipped.increment();
+        stack.pop().recount();
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return top[0];
+  }
+
+  /**
+   * Sets the creation date of a new node and counts it.
+   *
+   * @param e     the new node
+   * @param attrs the attributes of the entry the node was read from
+   */
+  private void stamp(final FileSystemElement e,
+                     final BasicFileAttributes attrs) {
+    e.setCreationTime(attrs.lastModifiedTime().toMillis());
+    imported.increment();
+  }
+
+  /**
+   * Returns the name a directory is imported under. A file system root has no
+   * name of its own and is imported as "root".
+   *
+   * @param dir the directory
+   * @return the name
+   */
+  private static String nameOf(final Path dir) {
+    final Path name = dir.getFileName();
+    return name == null ? "root" : name.toString();
+  }
+}
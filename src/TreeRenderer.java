@@ -0,0 +1,303 @@
+package src;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Renders file system trees into an {@link Appendable}. Lines are collected in
+ * a large buffer that is handed to the output only when it fills up, and the
+ * indentation is cut from one precomputed string, so rendering a big tree
+ * makes few calls on the output and never holds the whole text in memory.
+ * Directory lines end with the totals of the subtree, which every directory
+ * keeps up to date, so they cost nothing to show.
+ */
+public class TreeRenderer {
+  /**
+   * The default size of the buffer, in characters.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+  /**
+   * The indentation of one level.
+   */
+  private static final String INDENT = "  ";
+  /**
+   * The line separator.
+   */
+  private static final String NEWLINE = System.lineSeparator();
+
+  /**
+   * The output of the renderer.
+   */
+  private final Appendable out;
+  /**
+   * The buffer the lines are collected in.
+   */
+  private final StringBuilder buffer;
+  /**
+   * The size above which the buffer is written out.
+   */
+  private final int bufferSize;
+  /**
+   * The indentation of the deepest level rendered so far.
+   */
+  private String indentation = INDENT.repeat(16);
+  /**
+   * The deepest level rendered below the root of a tree.
+   */
+  private int maxDepth = Integer.MAX_VALUE;
+  /**
+   * The largest number of elements rendered for a tree.
+   */
+  private long maxNodes = Long.MAX_VALUE;
+  /**
+   * Whether directory lines show the totals of their subtree.
+   */
+  private boolean totals = true;
+
+  /**
+   * Constructs a new TreeRenderer object with the default buffer size.
+   *
+   * @param out the output
+   */
+  public TreeRenderer(final Appendable out) { this(out, DEFAULT_BUFFER_SIZE); }
+
+  /**
+   * Constructs a new TreeRenderer object.
+   *
+   * @param out        the output
+   * @param bufferSize the size of the buffer, in characters
+   */
+  public TreeRenderer(final Appendable out, final int bufferSize) {
+    this.out = out;
+    this.bufferSize = bufferSize;
+    this.buffer = new StringBuilder(bufferSize + 256);
+  }
+
+  /**
+   * Sets the deepest level rendered below the root of a tree.
+   *
+   * @param maxDepth the deepest level, zero to render only the root
+   */
+  public void setMaxDepth(final int maxDepth) { this.maxDepth = maxDepth; }
+
+  /**
+   * Sets the largest number of elements rendered for a tree.
+   *
+   * @param maxNodes the largest number of elements
+   */
+  public void setMaxNodes(final long maxNodes) { this.maxNodes = maxNodes; }
+
+  /**
+   * Sets whether directory lines show the number of files and directories
+   * below them and their depth.
+   *
+   * @param totals true to show the totals
+   */
+  public void setTotals(final boolean totals) { this.totals = totals; }
+
+  /**
+   * Renders the specified element and its descendants, one per line, each
+   * indented by its level. The walk uses an explicit stack, so deep trees do
+   * not exhaust the call stack.
+   *
+   * @param root  the root of the tree
+   * @param level the indentation level of the root
+   * @return the number of rendered elements
+   * @throws IOException if the output fails
+   */
+  public long renderTree(final FileSystemElement root, final int level)
+      throws IOException {
+    long nodes = 0;
+    if (maxNodes <= 0)
+      return nodes;
+    line(level, root);
+    nodes++;
+    final Deque<Iterator<FileSystemElement>> stack = new ArrayDeque<>();
+    if (root instanceof Directory && maxDepth > 0)
+      stack.push(((Directory)root).getListing().iterator());
+    while (!stack.isEmpty() && nodes < maxNodes) {
+      final Iterator<FileSystemElement> it = stack.peek();
+      if (!it.hasNext()) {
+        stack.pop();
+        continue;
+      }
+      final FileSystemElement e = it.next();
+      final int depth = stack.size();
+      line(level + depth, e);
+      nodes++;
+      if (e instanceof Directory && depth < maxDepth)
+        stack.push(((Directory)e).getListing().iterator());
+    }
+    flush();
+    return nodes;
+  }
+
+  /**
+   * Renders the specified snapshot node and its descendants, one per line,
+   * each indented by its level. Snapshot nodes carry no totals.
+   *
+   * @param root  the root of the tree
+   * @param level the indentation level of the root
+   * @return the number of rendered nodes
+   * @throws IOException if the output fails
+   */
+  public long renderTree(final TreeSnapshot.Node root, final int level)
+      throws IOException {
+    long nodes = 0;
+    if (maxNodes <= 0)
+      return nodes;
+    indent(level).append(root).append(NEWLINE);
+    nodes++;
+    final Deque<Iterator<TreeSnapshot.Node>> stack = new ArrayDeque<>();
+    if (root.isDirectory() && maxDepth > 0)
+      stack.push(root.getChildren().iterator());
+    while (!stack.isEmpty() && nodes < maxNodes) {
+      final Iterator<TreeSnapshot.Node> it = stack.peek();
+      if (!it.hasNext()) {
+        stack.pop();
+        continue;
+      }
+      final TreeSnapshot.Node node = it.next();
+      final int depth = stack.size();
+      indent(level + depth).append(node).append(NEWLINE);
+      spill();
+      nodes++;
+      if (node.isDirectory() && depth < maxDepth)
+        stack.push(node.getChildren().iterator());
+    }
+    flush();
+    return nodes;
+  }
+
+  /**
+   * Renders the children of the specified directory, directories first and
+   * each group in the listing order of the directory, or a note if the
+   * directory is empty.
+   *
+   * @param directory the directory to list
+   * @throws IOException if the output fails
+   */
+  public void renderChildren(final Directory directory) throws IOException {
+    if (directory.getChildren().isEmpty()) {
+      buffer.append("Empty directory").append(NEWLINE);
+    } else {
+      long nodes = 0;
+      final Collection<FileSystemElement> listing = directory.getListing();
+      for (final FileSystemElement child : listing) {
+        if (child instanceof Directory && nodes++ < maxNodes)
+          line(0, child);
+      }
+      for (final FileSystemElement child : listing) {
+        if (child instanceof File && nodes++ < maxNodes)
+          line(0, child);
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Writes out the buffered text and flushes the output if it can be.
+   *
+   * @throws IOException if the output fails
+   */
+  public void flush() throws IOException {
+    if (buffer.length() > 0) {
+      out.append(buffer);
+      buffer.setLength(0);
+    }
+    if (out instanceof Flushable)
+      ((Flushable)out).flush();
+  }
+
+  /**
+   * Prints the tree of the specified element to the standard output.
+   *
+   * @param root  the root of the tree
+   * @param level the indentation level of the root
+   */
+  public static void printTree(final FileSystemElement root, final int level) {
+    try {
+      new TreeRenderer(System.out).renderTree(root, level);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Prints the tree of the specified snapshot node to the standard output.
+   *
+   * @param root  the root of the tree
+   * @param level the indentation level of the root
+   */
+  public static void printTree(final TreeSnapshot.Node root,
+                               final int level) {
+    try {
+      new TreeRenderer(System.out).renderTree(root, level);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Prints the children of the specified directory to the standard output.
+   *
+   * @param directory the directory to list
+   */
+  public static void printChildren(final Directory directory) {
+    try {
+      new TreeRenderer(System.out).renderChildren(directory);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Buffers one line for the specified element.
+   *
+   * @param level the indentation level
+   * @param e     the element
+   * @throws IOException if the output fails
+   */
+  private void line(final int level, final FileSystemElement e)
+      throws IOException {
+    indent(level).append(e);
+    if (totals && e instanceof Directory) {
+      final SubtreeStats stats = ((Directory)e).getStats();
+      buffer.append(" (").append(stats.getFiles()).append(" files, ")
+          .append(stats.getDirectories()).append(" dirs, depth ")
+          .append(stats.getDepth()).append(')');
+    }
+    buffer.append(NEWLINE);
+    spill();
+  }
+
+  /**
+   * Buffers the indentation of a line.
+   *
+   * @param level the indentation level
+   * @return the buffer
+   */
+  private StringBuilder indent(final int level) {
+    final int width = level * INDENT.length();
+    if (width > indentation.length())
+      indentation = INDENT.repeat(Math.max(level, indentation.length()));
+    return buffer.append(indentation, 0, width);
+  }
+
+  /**
+   * Writes out the buffer once it is full.
+   *
+   * @throws IOException if the output fails
+   */
+  private void spill() throws IOException {
+    if (buffer.length() >= bufferSize) {
+      out.append(buffer);
+      buffer.setLength(0);
+    }
+  }
+}
@@ -0,0 +1,396 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A point-in-time view of a file system tree. The view is made of immutable
+ * nodes, and a change to the file system builds new nodes only for the
+ * changed directory and its ancestors, sharing every other node with the
+ * previous version. Taking a snapshot is just reading the latest version, and
+ * a reader can walk it for as long as it likes while the file system keeps
+ * changing.
+ *
+ * <p>The children of a node are listed by name, whatever the listing order of
+ * the live directory.
+ */
+public final class TreeSnapshot {
+  /**
+   * The root of the view.
+   */
+  private final Node root;
+
+  /**
+   * Constructs a new TreeSnapshot object.
+   *
+   * @param root the root of the view
+   */
+  TreeSnapshot(final Node root) { this.root = root; }
+
+  /**
+   * Returns the root of the view.
+   *
+   * @return the root node
+   */
+  public Node getRoot() { return root; }
+
+  /**
+   * Finds the node with the specified absolute path.
+   *
+   * @param path the path, such as {@code /docs/a.txt}
+   * @return the node, or null if there is none
+   */
+  public Node find(final String path) {
+    Node node = root;
+    for (final String part : path.split("/")) {
+      if (part.isEmpty())
+        continue;
+      node = node.find(part);
+      if (node == null)
+        return null;
+    }
+    return node;
+  }
+
+  /**
+   * Returns the nodes of the view in pre-order, starting with the root. The
+   * walk uses an explicit stack.
+   *
+   * @return a lazy stream of the nodes
+   */
+  public Stream<Node> stream() {
+    final Deque<Iterator<Node>> stack = new ArrayDeque<>();
+    final Iterator<Node> walk = new Iterator<Node>() {
+      /**
+       * The root, until it has been returned.
+       */
+      private Node first = root;
+
+      @Override
+      public boolean hasNext() {
+        if (first != null)
+          return true;
+        while (!stack.isEmpty() && !stack.peek().hasNext())
+          stack.pop();
+        return !stack.isEmpty();
+      }
+
+      @Override
+      public Node next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        final Node node;
+        if (first != null) {
+          node = first;
+          first = null;
+        } else {
+          node = stack.peek().next();
+        }
+        if (node.isDirectory())
+          stack.push(node.getChildren().iterator());
+        return node;
+      }
+    };
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(
+            walk, Spliterator.ORDERED | Spliterator.NONNULL |
+                      Spliterator.IMMUTABLE),
+        false);
+  }
+
+  /**
+   * Returns a version with a new child in the specified directory.
+   *
+   * @param root   the root of the version
+   * @param parent the live directory the child was added to
+   * @param child  the node of the child
+   * @return the root of the new version
+   * @throws IllegalStateException if the directory is not in the version
+   */
+  static Node added(final Node root, final Directory parent,
+                    final Node child) {
+    return update(root, pathOf(parent), d -> d.withChild(child));
+  }
+
+  /**
+   * Returns a version without a child of the specified directory.
+   *
+   * @param root   the root of the version
+   * @param parent the live directory the child was removed from
+   * @param name   the name of the child
+   * @return the root of the new version
+   * @throws IllegalStateException if the directory is not in the version
+   */
+  static Node removed(final Node root, final Directory parent,
+                      final String name) {
+    return update(root, pathOf(parent), d -> d.withoutChild(name));
+  }
+
+  /**
+   * Returns a version with a child of the specified directory renamed. The
+   * renamed node keeps the children of the old one.
+   *
+   * @param root    the root of the version
+   * @param parent  the live directory holding the child
+   * @param name    the old name of the child
+   * @param newName the new name of the child
+   * @return the root of the new version
+   * @throws IllegalStateException if the child is not in the version
+   */
+  static Node renamed(final Node root, final Directory parent,
+                      final String name, final String newName) {
+    return update(root, pathOf(parent), d -> {
+      final Node child = d.find(name);
+      if (child == null)
+        throw new IllegalStateException("Element not in the version");
+      return d.withoutChild(name).withChild(child.withName(newName));
+    });
+  }
+
+  /**
+   * Returns a version with a child moved from one directory to another. The
+   * moved node is shared, with everything below it.
+   *
+   * @param root the root of the version
+   * @param from the live directory the child left
+   * @param name the name of the child
+   * @param to   the live directory the child joined
+   * @return the root of the new version
+   * @throws IllegalStateException if the child or the directory it joined is
+   *                               not in the version
+   */
+  static Node moved(final Node root, final Directory from, final String name,
+                    final Directory to) {
+    final String[] source = pathOf(from);
+    final Node parent = find(root, source);
+    final Node child = parent == null ? null : parent.find(name);
+    if (child == null)
+      throw new IllegalStateException("Element not in the version");
+    final Node without = update(root, source, d -> d.withoutChild(name));
+    return update(without, pathOf(to), d -> d.withChild(child));
+  }
+
+  /**
+   * Returns a version with a changed directory. The directory and each of its
+   * ancestors are copied; nothing else is. A directory missing from the
+   * version means changes were published out of order, and dropping the
+   * change would leave every later version wrong, so it fails instead.
+   *
+   * @param root   the root of the version
+   * @param path   the names leading from the root to the directory
+   * @param change the change to make to the directory
+   * @return the root of the new version
+   * @throws IllegalStateException if the directory is not in the version
+   */
+  private static Node update(final Node root, final String[] path,
+                             final UnaryOperator<Node> change) {
+    final Node[] chain = new Node[path.length + 1];
+    chain[0] = root;
+    for (int i = 0; i < path.length; i++) {
+      chain[i + 1] = chain[i].find(path[i]);
+      if (chain[i + 1] == null || !chain[i + 1].isDirectory())
+        throw new IllegalStateException("Directory not in the version");
+    }
+    Node changed = change.apply(chain[path.length]);
+    for (int i = path.length - 1; i >= 0; i--)
+      changed = chain[i].withChild(changed);
+    return changed;
+  }
+
+  /**
+   * Finds the node at the end of a path.
+   *
+   * @param root the root of the version
+   * @param path the names leading from the root to the node
+   * @return the node, or null if there is none
+   */
+  private static Node find(final Node root, final String[] path) {
+    Node node = root;
+    for (int i = 0; i < path.length && node != null; i++)
+      node = node.find(path[i]);
+    return node;
+  }
+
+  /**
+   * Returns the names leading from the root to a live directory.
+   *
+   * @param directory the directory
+   * @return the names, empty for the root
+   */
+  private static String[] pathOf(final Directory directory) {
+    int depth = 0;
+    for (Directory d = directory; d.getParent() != null; d = d.getParent())
+      depth++;
+    final String[] path = new String[depth];
+    for (Directory d = directory; d.getParent() != null; d = d.getParent())
+      path[--depth] = d.getName();
+    return path;
+  }
+
+  /**
+   * An immutable file or directory of a snapshot.
+   */
+  public static final class Node {
+    /**
+     * The name of the element.
+     */
+    private final String name;
+    /**
+     * The creation time of the element, in milliseconds since the epoch.
+     */
+    private final long creationTime;
+    /**
+     * Whether the element is a directory.
+     */
+    private final boolean directory;
+    /**
+     * The children of a directory, or null if there are none.
+     */
+    private final NodeMap children;
+
+    /**
+     * Constructs a new Node object.
+     *
+     * @param name         the name of the element
+     * @param creationTime the creation time of the element
+     * @param directory    whether the element is a directory
+     * @param children     the children of a directory, or null
+     */
+    private Node(final String name, final long creationTime,
+                 final boolean directory, final NodeMap children) {
+      this.name = name;
+      this.creationTime = creationTime;
+      this.directory = directory;
+      this.children = children;
+    }
+
+    /**
+     * Builds the nodes of a live element and everything below it. The
+     * element must not change while it is copied.
+     *
+     * @param e the element
+     * @return the node of the element
+     */
+    static Node of(final FileSystemElement e) {
+      if (!(e instanceof Directory))
+        return new Node(e.getName(), e.getCreationTime(), false, null);
+      // Post-order, so that the children of a directory are built before it.
+      final Map<Directory, NodeMap> built = new IdentityHashMap<>();
+      final Iterator<FileSystemElement> it =
+          ((Directory)e).iterator(TraversalOrder.POST_ORDER);
+      while (true) {
+        final FileSystemElement x = it.next();
+        final Node node =
+            x instanceof Directory
+                ? new Node(x.getName(), x.getCreationTime(), true,
+                           built.remove(x))
+                : new Node(x.getName(), x.getCreationTime(), false, null);
+        if (x == e)
+          return node;
+        final Directory parent = x.getParent();
+        built.put(parent, NodeMap.put(built.get(parent), node));
+      }
+    }
+
+    /**
+     * Returns the name of the element.
+     *
+     * @return the name
+     */
+    public String getName() { return name; }
+
+    /**
+     * Returns the creation time of the element.
+     *
+     * @return the creation time, in milliseconds since the epoch
+     */
+    public long getCreationTime() { return creationTime; }
+
+    /**
+     * Returns whether the element is a directory.
+     *
+     * @return true for a directory, false for a file
+     */
+    public boolean isDirectory() { return directory; }
+
+    /**
+     * Returns the number of children of the element.
+     *
+     * @return the number of children, zero for a file
+     */
+    public int getChildCount() { return NodeMap.size(children); }
+
+    /**
+     * Finds the child with the specified name.
+     *
+     * @param childName the name of the child
+     * @return the child, or null if there is none
+     */
+    public Node find(final String childName) {
+      return NodeMap.get(children, childName);
+    }
+
+    /**
+     * Returns the children of the element in name order.
+     *
+     * @return the children
+     */
+    public Iterable<Node> getChildren() {
+      return () -> NodeMap.iterator(children);
+    }
+
+    /**
+     * Returns a copy of the directory with the specified child added or
+     * replaced.
+     *
+     * @param child the child
+     * @return the copy
+     */
+    Node withChild(final Node child) {
+      return new Node(name, creationTime, true, NodeMap.put(children, child));
+    }
+
+    /**
+     * Returns a copy of the directory without the child with the specified
+     * name.
+     *
+     * @param childName the name of the child
+     * @return the copy, or this node if it has no such child
+     */
+    Node withoutChild(final String childName) {
+      final NodeMap rest = NodeMap.remove(children, childName);
+      return rest == children ? this
+                              : new Node(name, creationTime, true, rest);
+    }
+
+    /**
+     * Returns a copy of the element with another name.
+     *
+     * @param newName the new name
+     * @return the copy
+     */
+    Node withName(final String newName) {
+      return new Node(newName, creationTime, directory, children);
+    }
+
+    /**
+     * Returns a string representation of the element, in the same form as
+     * the live element.
+     *
+     * @return a string representation of the element
+     */
+    @Override
+    public String toString() {
+      return directory ? "* " + name + "/" : name;
+    }
+  }
+}